@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockFlowFileQueue;
+import org.apache.nifi.util.MockProcessSession;
+import org.apache.nifi.util.SharedSessionState;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks ExecuteScript triggers for each of the bundled engines, using the json2json test scripts in
+ * src/test/resources, which parse the payload and write a transformed copy of it. Each invocation is one call to the
+ * processor's onTrigger with one flow file queued, so the test runner's own scheduling is not measured. Concurrency
+ * is set with the JMH thread count (-t), and the processor gets one script engine per thread. Run with the "jmh"
+ * Gradle task, which also enables the GC profiler to report the allocation rate (gc.alloc.rate.norm is bytes
+ * allocated per trigger).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecuteScriptBenchmark {
+
+    @Param({"Groovy", "ECMAScript", "python"})
+    public String engine;
+
+    @Param({"1024", "65536"})
+    public int payloadSize;
+
+    private TestRunner runner;
+    private AccessibleExecuteScript executeScript;
+    private ProcessContext context;
+    private MockFlowFile payload;
+    private final AtomicLong flowFileIds = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkParams params) {
+        executeScript = new AccessibleExecuteScript();
+        executeScript.getSupportedPropertyDescriptors();
+        runner = TestRunners.newTestRunner(executeScript);
+        runner.setValidateExpressionUsage(false);
+        runner.setThreadCount(params.getThreads());
+        runner.setProperty(executeScript.getScriptingComponentHelper().SCRIPT_ENGINE, engine);
+        runner.setProperty(ScriptingComponentUtils.SCRIPT_FILE, getScriptFile(engine));
+        runner.assertValid();
+
+        // Schedule the processor (creating the engines and compiling the script) outside the measurement. The flow
+        // file is kept as the template for the ones the benchmark queues
+        payload = runner.enqueue(createPayload(payloadSize), Collections.singletonMap("filename", "payload.json"));
+        runner.run(1, false, true);
+        runner.assertAllFlowFilesTransferred(ExecuteScript.REL_SUCCESS, 1);
+        context = runner.getProcessContext();
+    }
+
+    /**
+     * The session state of one benchmark thread: its own queue, and sessions that aren't tracked by the test runner
+     * (which would otherwise keep every session the benchmark creates)
+     */
+    @State(Scope.Thread)
+    public static class ThreadSessions {
+        private SharedSessionState sessionState;
+        private ProcessSessionFactory sessionFactory;
+        private MockFlowFile payload;
+
+        // Only this setup takes the benchmark state: JMH 1.19 generates clashing locals when more than one does
+        @Setup(Level.Iteration)
+        public void createSessionState(ExecuteScriptBenchmark benchmark) {
+            // A new state for each iteration drops the provenance events recorded by the last one
+            final SharedSessionState iterationState = new SharedSessionState(benchmark.executeScript, benchmark.flowFileIds);
+            sessionState = iterationState;
+            sessionFactory = () -> new MockProcessSession(iterationState, benchmark.executeScript);
+            payload = benchmark.payload;
+        }
+
+        @Setup(Level.Invocation)
+        public void enqueue() {
+            final MockFlowFileQueue queue = sessionState.getFlowFileQueue();
+            if (queue.isEmpty()) {
+                queue.offer(new MockFlowFile(sessionState.nextFlowFileId(), payload));
+            }
+        }
+    }
+
+    @Benchmark
+    public void trigger(ThreadSessions sessions) {
+        executeScript.onTrigger(context, sessions.sessionFactory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runner.run(1, true, false);
+    }
+
+    private static String getScriptFile(String engine) {
+        switch (engine) {
+            case "ECMAScript":
+                return "src/test/resources/test_json2json.js";
+            case "python":
+                return "src/test/resources/test_json2json.py";
+            default:
+                return "src/test/resources/test_json2json.groovy";
+        }
+    }
+
+    /**
+     * Creates a JSON document in the form expected by the test_json2json scripts, with secondary ratings added until
+     * it is (about) the given size
+     */
+    private static byte[] createPayload(int size) {
+        final StringBuilder json = new StringBuilder("{\"rating\":{\"primary\":{\"value\":3}");
+        for (int i = 0; json.length() < size - 2; i++) {
+            json.append(",\"rating").append(i).append("\":{\"value\":").append(i % 10).append('}');
+        }
+        json.append("}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
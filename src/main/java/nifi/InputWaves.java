@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the input for a script into waves bounded by a number of flow files and a number of bytes, so that input
+ * larger than the heap can be processed a wave at a time. While a wave is being processed, the next wave is read on
+ * a background thread, so at most two waves (plus one input that overshoots the byte budget) are held in memory.
+ */
+public class InputWaves implements Closeable {
+
+    /**
+     * The content and attributes of a flow file to enqueue. The content is either in memory or in a file.
+     */
+    public static class Input {
+        private final byte[] content;
+        private final Path contentFile;
+        private final long size;
+        private final Map<String, String> attributes;
+
+        public Input(byte[] content, Map<String, String> attributes) {
+            this.content = content;
+            this.contentFile = null;
+            this.size = content.length;
+            this.attributes = attributes;
+        }
+
+        public Input(Path contentFile, long size, Map<String, String> attributes) {
+            this.content = null;
+            this.contentFile = contentFile;
+            this.size = size;
+            this.attributes = attributes;
+        }
+
+        /** @return the content, or null if it is in a file */
+        public byte[] getContent() {
+            return content;
+        }
+
+        /** @return the file holding the content, or null if it is in memory */
+        public Path getContentFile() {
+            return contentFile;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Map<String, String> getAttributes() {
+            return attributes;
+        }
+    }
+
+    /**
+     * Reads the inputs one at a time
+     */
+    public interface InputSource {
+        /**
+         * @return the next input, or null if there are no more
+         * @throws IOException if the input cannot be read
+         */
+        Input next() throws IOException;
+    }
+
+    private final InputSource source;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final ExecutorService reader;
+    private Future<List<Input>> nextWave;
+
+    /**
+     * @param source   the source of the inputs
+     * @param maxFiles the maximum number of inputs in a wave
+     * @param maxBytes the number of bytes after which a wave is complete
+     */
+    public InputWaves(InputSource source, int maxFiles, long maxBytes) {
+        if (maxFiles < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Wave size must be positive: " + maxFiles + " files, " + maxBytes + " bytes");
+        }
+        this.source = source;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.reader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Input wave reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the next wave of inputs, and starts reading the one after it in the background.
+     *
+     * @return the next wave, or null if all inputs have been read
+     * @throws IOException if the inputs cannot be read
+     */
+    public List<Input> nextWave() throws IOException {
+        if (nextWave == null) {
+            nextWave = reader.submit(this::readWave);
+        }
+        List<Input> wave;
+        try {
+            wave = nextWave.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading input", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new IOException(ee.getCause());
+        }
+        if (wave.isEmpty()) {
+            return null;
+        }
+        nextWave = reader.submit(this::readWave);
+        return wave;
+    }
+
+    private List<Input> readWave() throws IOException {
+        List<Input> wave = new ArrayList<>();
+        long bytes = 0;
+        Input input;
+        while (wave.size() < maxFiles && bytes < maxBytes && (input = source.next()) != null) {
+            wave.add(input);
+            // Content in files doesn't take up heap, but still counts towards the wave so waves stay a manageable size
+            bytes += input.getSize();
+        }
+        return wave;
+    }
+
+    @Override
+    public void close() {
+        reader.shutdownNow();
+    }
+}
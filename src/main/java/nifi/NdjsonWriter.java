@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import nifi.script.FileContentStore;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.nifi.util.MockFlowFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Writes result flow files as newline-delimited JSON, one compact object per flow file:
+ * <pre>
+ * {"relationship":"success","id":0,"size":52,"entryDate":1500000000000,"triggerNanos":1234567,
+ *  "attributes":{"filename":"file2.json",...},"content":"...","contentTruncated":false}
+ * </pre>
+ * Everything is encoded straight into a buffered stream, without building a String per attribute or reading the
+ * content into memory. The content is included only if requested, either as (UTF-8) text or base64, and can be
+ * truncated to a number of bytes. triggerNanos is the duration of the trigger that transferred the flow file, if
+ * it is known.
+ */
+public class NdjsonWriter implements Flushable, Closeable {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int count;
+    private final FileContentStore contentStore;
+    private final boolean includeContent;
+    private final boolean base64Content;
+    private final long contentLimit;
+    private final char[] chars = new char[4096];
+
+    // For encoders that write to a stream, such as base64
+    private final OutputStream bufferStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            put(b);
+        }
+    };
+
+    /**
+     * @param out            the stream to write to
+     * @param contentStore   the store holding flow file content, or null if flow files hold their own content
+     * @param includeContent whether to include the content of each flow file
+     * @param base64Content  whether to encode the content as base64 rather than text
+     * @param contentLimit   the maximum number of bytes of content to include, or a negative number for no limit
+     */
+    public NdjsonWriter(OutputStream out, FileContentStore contentStore, boolean includeContent, boolean base64Content, long contentLimit) {
+        this.out = out;
+        this.contentStore = contentStore;
+        this.includeContent = includeContent;
+        this.base64Content = base64Content;
+        this.contentLimit = contentLimit;
+    }
+
+    /**
+     * Writes a line for the given flow file
+     *
+     * @param flowFile     the flow file
+     * @param relationship the relationship it was transferred to
+     * @param triggerNanos the duration of the trigger that transferred it, or a negative number if not known
+     * @throws IOException if the line cannot be written
+     */
+    public void write(MockFlowFile flowFile, String relationship, long triggerNanos) throws IOException {
+        final long size = contentStore == null ? flowFile.getSize() : contentStore.getSize(flowFile);
+        writeAscii("{\"relationship\":");
+        writeString(relationship);
+        writeAscii(",\"id\":");
+        writeLong(flowFile.getId());
+        writeAscii(",\"size\":");
+        writeLong(size);
+        writeAscii(",\"entryDate\":");
+        writeLong(flowFile.getEntryDate());
+        if (triggerNanos >= 0) {
+            writeAscii(",\"triggerNanos\":");
+            writeLong(triggerNanos);
+        }
+        writeAscii(",\"attributes\":{");
+        boolean first = true;
+        for (Map.Entry<String, String> attribute : flowFile.getAttributes().entrySet()) {
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            writeString(attribute.getKey());
+            put(':');
+            writeString(attribute.getValue());
+        }
+        put('}');
+        if (includeContent) {
+            final long contentBytes = contentLimit < 0 ? size : Math.min(size, contentLimit);
+            writeAscii(",\"content\":\"");
+            try (InputStream content = new BoundedInputStream(openContent(flowFile), contentBytes)) {
+                if (base64Content) {
+                    // Close the encoder (to write the padding), but not the underlying stream
+                    try (OutputStream encoder = Base64.getEncoder().wrap(new CloseShieldOutputStream(bufferStream))) {
+                        IOUtils.copy(content, encoder);
+                    }
+                } else {
+                    final Reader reader = new InputStreamReader(content, StandardCharsets.UTF_8);
+                    int read;
+                    while ((read = reader.read(chars)) != -1) {
+                        for (int i = 0; i < read; i++) {
+                            writeChar(chars[i]);
+                        }
+                    }
+                }
+            }
+            writeAscii("\",\"contentTruncated\":");
+            writeAscii(contentBytes < size ? "true" : "false");
+        }
+        writeAscii("}\n");
+    }
+
+    private InputStream openContent(MockFlowFile flowFile) throws IOException {
+        final Path contentFile = contentStore == null ? null : contentStore.getContent(flowFile);
+        if (contentFile == null) {
+            return new ByteArrayInputStream(flowFile.toByteArray());
+        }
+        return Files.newInputStream(contentFile);
+    }
+
+    /**
+     * Buffers a byte, writing the buffer out when it is full. This is not synchronized, unlike BufferedOutputStream.
+     */
+    private void put(int b) throws IOException {
+        if (count == buffer.length) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put(s.charAt(i));
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeAscii(Long.toString(value));
+    }
+
+    private void writeString(String s) throws IOException {
+        put('"');
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                writeChar(s.charAt(i));
+            }
+        }
+        put('"');
+    }
+
+    /**
+     * Writes a character of a JSON string as (escaped) UTF-8. Surrogates are written as escapes, so that characters
+     * outside the BMP are encoded as escaped pairs, and unpaired surrogates still produce valid JSON.
+     */
+    private void writeChar(char c) throws IOException {
+        switch (c) {
+            case '"':
+                put('\\');
+                put('"');
+                return;
+            case '\\':
+                put('\\');
+                put('\\');
+                return;
+            case '\n':
+                put('\\');
+                put('n');
+                return;
+            case '\r':
+                put('\\');
+                put('r');
+                return;
+            case '\t':
+                put('\\');
+                put('t');
+                return;
+            default:
+                break;
+        }
+        if (c < 0x20) {
+            put('\\');
+            put('u');
+            put('0');
+            put('0');
+            put(HEX[c >> 4]);
+            put(HEX[c & 0xf]);
+        } else if (c < 0x80) {
+            put(c);
+        } else if (c < 0x800) {
+            put(0xc0 | (c >> 6));
+            put(0x80 | (c & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            put('\\');
+            put('u');
+            put(HEX[c >> 12]);
+            put(HEX[(c >> 8) & 0xf]);
+            put(HEX[(c >> 4) & 0xf]);
+            put(HEX[c & 0xf]);
+        } else {
+            put(0xe0 | (c >> 12));
+            put(0x80 | ((c >> 6) & 0x3f));
+            put(0x80 | (c & 0x3f));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+        out.flush();
+    }
+
+    /**
+     * Flushes the output, leaving the underlying stream open
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
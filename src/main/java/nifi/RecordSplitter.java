@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits a stream (such as standard input) into records as it is read, for use with {@link InputWaves}. A record
+ * is a number of lines, the bytes up to a delimiter, or a fixed number of bytes. As with NiFi's split processors,
+ * the trailing line terminator (or the delimiter) is not included in a record, and each record gets a
+ * fragment.index attribute (starting at 1).
+ */
+public class RecordSplitter implements InputWaves.InputSource {
+
+    public static final String FRAGMENT_INDEX = "fragment.index";
+
+    private static final byte[] LINE_FEED = {'\n'};
+
+    private final InputStream in;
+    private final int lines;
+    private final byte[] delimiter;
+    private final int[] delimiterFailure;
+    private final int bytes;
+    private final Map<String, String> attributes;
+
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private int fragmentIndex;
+
+    private RecordSplitter(InputStream in, int lines, byte[] delimiter, int bytes, Map<String, String> attributes) {
+        this.in = in;
+        this.lines = lines;
+        this.delimiter = lines > 0 ? LINE_FEED : delimiter;
+        this.delimiterFailure = this.delimiter == null ? null : failureFunction(this.delimiter);
+        this.bytes = bytes;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @return a splitter producing records of the given number of lines
+     */
+    public static RecordSplitter byLines(InputStream in, int lines, Map<String, String> attributes) {
+        if (lines < 1) {
+            throw new IllegalArgumentException("Lines per record must be positive: " + lines);
+        }
+        return new RecordSplitter(in, lines, null, 0, attributes);
+    }
+
+    /**
+     * @return a splitter producing the records between occurrences of the given delimiter
+     */
+    public static RecordSplitter byDelimiter(InputStream in, byte[] delimiter, Map<String, String> attributes) {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("Delimiter must not be empty");
+        }
+        return new RecordSplitter(in, 0, delimiter, 0, attributes);
+    }
+
+    /**
+     * @return a splitter producing records of the given number of bytes (except possibly the last)
+     */
+    public static RecordSplitter byBytes(InputStream in, int bytes, Map<String, String> attributes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Bytes per record must be positive: " + bytes);
+        }
+        return new RecordSplitter(in, 0, null, bytes, attributes);
+    }
+
+    @Override
+    public InputWaves.Input next() throws IOException {
+        final RecordBuffer record = new RecordBuffer();
+        final boolean complete;
+        if (lines > 0) {
+            complete = readLines(record);
+        } else if (delimiter != null) {
+            complete = readDelimited(record);
+        } else {
+            complete = readBytes(record);
+        }
+        if (!complete && record.size() == 0) {
+            return null;
+        }
+        final Map<String, String> recordAttributes = new HashMap<>(attributes);
+        recordAttributes.put(FRAGMENT_INDEX, Integer.toString(++fragmentIndex));
+        return new InputWaves.Input(record.toByteArray(), recordAttributes);
+    }
+
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        if (endOfInput) {
+            return false;
+        }
+        final int read = in.read(buffer);
+        if (read == -1) {
+            endOfInput = true;
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Reads lines into the record, leaving out the last line terminator (\n or \r\n)
+     *
+     * @return whether a line terminator was read (otherwise the input ended)
+     */
+    private boolean readLines(RecordBuffer record) throws IOException {
+        for (int line = 0; line < lines; line++) {
+            if (line > 0) {
+                // Don't start a line past the end of the input
+                if (!fill()) {
+                    return false;
+                }
+                record.write('\n');
+            }
+            final int start = record.size();
+            final boolean terminated = readDelimited(record);
+            if (record.size() > start && record.last() == '\r') {
+                record.truncate(1);
+            }
+            if (!terminated) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads into the record up to the delimiter, leaving out the delimiter. The delimiter is matched with the
+     * Knuth-Morris-Pratt algorithm, so each byte is examined once even when a partial match fails.
+     *
+     * @return whether the delimiter was read (otherwise the input ended)
+     */
+    private boolean readDelimited(RecordBuffer record) throws IOException {
+        int matched = 0;
+        while (fill()) {
+            final int start = position;
+            while (position < limit) {
+                final byte b = buffer[position++];
+                while (matched > 0 && b != delimiter[matched]) {
+                    matched = delimiterFailure[matched - 1];
+                }
+                if (b == delimiter[matched] && ++matched == delimiter.length) {
+                    // The delimiter may have started in an earlier buffer, so it is removed once written
+                    record.write(buffer, start, position - start);
+                    record.truncate(delimiter.length);
+                    return true;
+                }
+            }
+            record.write(buffer, start, position - start);
+        }
+        return false;
+    }
+
+    /**
+     * Reads a fixed number of bytes into the record
+     *
+     * @return whether the record is full (otherwise the input ended)
+     */
+    private boolean readBytes(RecordBuffer record) throws IOException {
+        while (record.size() < bytes && fill()) {
+            final int count = Math.min(bytes - record.size(), limit - position);
+            record.write(buffer, position, count);
+            position += count;
+        }
+        return record.size() == bytes;
+    }
+
+    /**
+     * @return for each prefix of the delimiter, the length of its longest proper prefix that is also a suffix
+     */
+    private static int[] failureFunction(byte[] delimiter) {
+        final int[] failure = new int[delimiter.length];
+        int length = 0;
+        for (int i = 1; i < delimiter.length; i++) {
+            while (length > 0 && delimiter[i] != delimiter[length]) {
+                length = failure[length - 1];
+            }
+            if (delimiter[i] == delimiter[length]) {
+                length++;
+            }
+            failure[i] = length;
+        }
+        return failure;
+    }
+
+    /**
+     * A byte array output stream that can drop bytes from its end
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        void truncate(int length) {
+            count -= length;
+        }
+
+        byte last() {
+            return buf[count - 1];
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import nifi.script.FileContentStore;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.util.MockFlowFile;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes result flow files to a directory: the content of each to {@code <directory>/<relationship>/<filename>},
+ * and its attributes to a properties file next to it ({@code <filename>.attributes}, which can be passed back in
+ * with -attrfile). Files are written by a small pool of threads, so the results of one wave are written while the
+ * script processes the next. The number of pending writes is bounded, so a large result set can't build up a
+ * backlog of flow files waiting to be written.
+ */
+public class ResultWriter implements Closeable {
+
+    static final String ATTRIBUTES_SUFFIX = ".attributes";
+
+    private static final int PENDING_WRITES_PER_THREAD = 64;
+
+    private final Path directory;
+    private final FileContentStore contentStore;
+    private final ExecutorService writers;
+    private final Semaphore pendingWrites;
+    private final Phaser inFlight = new Phaser(1);
+    private final Set<Path> writtenFiles = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<IOException> firstFailure = new AtomicReference<>();
+
+    /**
+     * @param directory    the directory to write to, which is created if necessary
+     * @param contentStore the store holding flow file content, or null if flow files hold their own content
+     * @param threads      the number of threads writing files
+     * @throws IOException if the directory cannot be created
+     */
+    public ResultWriter(Path directory, FileContentStore contentStore, int threads) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.contentStore = contentStore;
+        this.pendingWrites = new Semaphore(threads * PENDING_WRITES_PER_THREAD);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Result writer " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the given flow file to be written, waiting if too many writes are already pending
+     *
+     * @param flowFile     the flow file
+     * @param relationship the relationship it was transferred to, which names its directory
+     */
+    public void write(final MockFlowFile flowFile, final Relationship relationship) {
+        pendingWrites.acquireUninterruptibly();
+        inFlight.register();
+        try {
+            writers.execute(() -> {
+                try {
+                    writeFlowFile(flowFile, relationship);
+                } catch (IOException ioe) {
+                    firstFailure.compareAndSet(null, ioe);
+                } finally {
+                    pendingWrites.release();
+                    inFlight.arriveAndDeregister();
+                }
+            });
+        } catch (RuntimeException re) {
+            pendingWrites.release();
+            inFlight.arriveAndDeregister();
+            throw re;
+        }
+    }
+
+    private void writeFlowFile(MockFlowFile flowFile, Relationship relationship) throws IOException {
+        final Path relationshipDirectory = Files.createDirectories(directory.resolve(relationship.getName()));
+        final Path contentFile = relationshipDirectory.resolve(getFileName(flowFile, relationshipDirectory));
+
+        try (FileChannel target = FileChannel.open(contentFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final Path storedContent = contentStore == null ? null : contentStore.getContent(flowFile);
+            if (storedContent == null) {
+                final ByteBuffer content = ByteBuffer.wrap(flowFile.toByteArray());
+                while (content.hasRemaining()) {
+                    target.write(content);
+                }
+            } else {
+                try (FileChannel source = FileChannel.open(storedContent, StandardOpenOption.READ)) {
+                    long transferred = 0;
+                    final long size = source.size();
+                    while (transferred < size) {
+                        transferred += source.transferTo(transferred, size - transferred, target);
+                    }
+                }
+            }
+        }
+
+        final Properties attributes = new Properties();
+        for (Map.Entry<String, String> attribute : flowFile.getAttributes().entrySet()) {
+            attributes.setProperty(attribute.getKey(), attribute.getValue());
+        }
+        final Path attributesFile = contentFile.resolveSibling(contentFile.getFileName() + ATTRIBUTES_SUFFIX);
+        try (Writer writer = Files.newBufferedWriter(attributesFile, StandardCharsets.UTF_8)) {
+            attributes.store(writer, "Attributes of " + flowFile);
+        }
+    }
+
+    /**
+     * Returns the file name for the given flow file: its filename attribute (without any path), made unique by
+     * prefixing the flow file id if another flow file with the same name has already been written
+     */
+    private String getFileName(MockFlowFile flowFile, Path relationshipDirectory) {
+        String fileName = flowFile.getAttribute(CoreAttributes.FILENAME.key());
+        if (fileName != null) {
+            final Path fileNamePath = relationshipDirectory.getFileSystem().getPath(fileName).getFileName();
+            fileName = fileNamePath == null ? null : fileNamePath.toString();
+        }
+        if (fileName == null || fileName.isEmpty() || fileName.equals("..")) {
+            fileName = flowFile.getAttribute(CoreAttributes.UUID.key());
+        }
+        if (!writtenFiles.add(relationshipDirectory.resolve(fileName))) {
+            fileName = flowFile.getId() + "-" + fileName;
+            writtenFiles.add(relationshipDirectory.resolve(fileName));
+        }
+        return fileName;
+    }
+
+    /**
+     * Waits for all queued flow files to be written
+     *
+     * @throws IOException if any of the files could not be written
+     */
+    public void flush() throws IOException {
+        inFlight.arriveAndAwaitAdvance();
+        final IOException failure = firstFailure.getAndSet(null);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Forgets the files written so far, so the results of a new run overwrite them rather than being written
+     * alongside them. Call after {@link #flush()}.
+     */
+    public void reset() {
+        writtenFiles.clear();
+    }
+
+    /**
+     * @return the directory results are written to
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writers.shutdown();
+        }
+    }
+}
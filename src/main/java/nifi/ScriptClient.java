@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends a run to a {@link ScriptDaemon} and streams its output back to standard output and standard error. Paths
+ * in the arguments are made absolute (as the daemon has its own working directory), and standard input is
+ * forwarded if there is any. Requests carry the daemon's token, read from the file the daemon wrote it to.
+ */
+public class ScriptClient {
+
+    // Options whose values are paths
+    private static final String[] PATH_OPTIONS = {"-input=", "-output=", "-attrfile=", "-cache=", "-bench-output=", "-file-content=", "-profile="};
+
+    /**
+     * Runs the given arguments on the daemon
+     *
+     * @param port the port the daemon is listening on
+     * @param args the ScriptRunner arguments
+     * @return the exit status of the run
+     * @throws IOException if the daemon cannot be reached
+     */
+    public static int run(int port, String[] args) throws IOException {
+        return run(port, args, ScriptDaemon.getDefaultTokenDirectory(), System.in, System.out, System.err);
+    }
+
+    /**
+     * Runs the given arguments on the daemon, with the token it wrote to the given directory
+     *
+     * @param port           the port the daemon is listening on
+     * @param args           the ScriptRunner arguments
+     * @param tokenDirectory the directory holding the daemon's token file
+     * @param stdin          the run's standard input
+     * @param stdout         where to write the run's standard output
+     * @param stderr         where to write the run's standard error
+     * @return the exit status of the run
+     * @throws IOException if the daemon cannot be reached
+     */
+    static int run(int port, String[] args, Path tokenDirectory, InputStream stdin, PrintStream stdout, PrintStream stderr) throws IOException {
+        final Path tokenFile = ScriptDaemon.getTokenFile(tokenDirectory, port);
+        final String token;
+        try {
+            token = new String(Files.readAllBytes(tokenFile), StandardCharsets.US_ASCII).trim();
+        } catch (NoSuchFileException nsfe) {
+            throw new IOException("No daemon token in " + tokenFile + ", is the daemon running on port " + port + "?", nsfe);
+        }
+
+        final List<String> forwardedArgs = new ArrayList<>();
+        boolean forwardStdin = stdin.available() > 0;
+        for (String arg : args) {
+            forwardedArgs.add(absolutize(arg));
+            forwardStdin |= "-stdin".equals(arg) || arg.startsWith("-split-");
+        }
+        if (forwardStdin && !forwardedArgs.contains("-stdin")) {
+            // Input arriving over HTTP may not be available yet when the daemon looks for it
+            forwardedArgs.add(0, "-stdin");
+        }
+
+        final URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, ScriptDaemon.RUN_PATH);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty(ScriptDaemon.TOKEN_HEADER, token);
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(64 * 1024);
+        connection.setReadTimeout(0);
+        try (DataOutputStream request = new DataOutputStream(connection.getOutputStream())) {
+            request.writeInt(forwardedArgs.size());
+            for (String arg : forwardedArgs) {
+                request.writeUTF(arg);
+            }
+            if (forwardStdin) {
+                IOUtils.copy(stdin, request);
+            }
+        }
+
+        final int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException(responseCode == HttpURLConnection.HTTP_FORBIDDEN
+                    ? "The daemon on port " + port + " rejected the token in " + tokenFile + ", it may have been restarted"
+                    : "The daemon on port " + port + " responded with HTTP status " + responseCode);
+        }
+        try (DataInputStream response = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+            final byte[] buffer = new byte[64 * 1024];
+            while (true) {
+                final int channel = response.readByte();
+                final int value = response.readInt();
+                if (channel == ScriptDaemon.EXIT) {
+                    stdout.flush();
+                    return value;
+                }
+                final OutputStream out = channel == ScriptDaemon.STDERR ? stderr : stdout;
+                int remaining = value;
+                while (remaining > 0) {
+                    final int read = response.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        throw new EOFException("Daemon closed the connection");
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                out.flush();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String absolutize(String arg) {
+        if (!arg.startsWith("-")) {
+            // The script file
+            return Paths.get(arg).toAbsolutePath().toString();
+        }
+        if (arg.startsWith("-modules=")) {
+            final StringBuilder modules = new StringBuilder("-modules=");
+            for (String modulePath : arg.substring("-modules=".length()).split(",")) {
+                if (modules.length() > "-modules=".length()) {
+                    modules.append(',');
+                }
+                modules.append(modulePath.trim().isEmpty() ? modulePath : Paths.get(modulePath.trim()).toAbsolutePath().toString());
+            }
+            return modules.toString();
+        }
+        for (String option : PATH_OPTIONS) {
+            if (arg.startsWith(option) && arg.length() > option.length()) {
+                return option + Paths.get(arg.substring(option.length())).toAbsolutePath();
+            }
+        }
+        return arg;
+    }
+}
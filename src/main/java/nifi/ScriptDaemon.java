@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs ScriptRunner in a long-lived JVM, taking runs from {@link ScriptClient} over HTTP on the loopback interface.
+ * Processors are kept scheduled between runs (see {@link ScriptRunner#enableWarmRunners}), so a run of the same
+ * script (with the same engine and modules) skips JVM startup, engine creation and script compilation.
+ * <p>
+ * A run is requested by POSTing to /run. The request body is the number of arguments and each argument (as written
+ * by {@link DataOutputStream#writeInt} and {@link DataOutputStream#writeUTF}), followed by the run's standard input.
+ * The response body is a sequence of frames, each a channel byte and an int: for {@link #STDOUT} and
+ * {@link #STDERR}, the int is the length of the bytes that follow; for {@link #EXIT}, which is the last frame, it is
+ * the exit status. Runs are handled one at a time, as ScriptRunner's state is global.
+ * <p>
+ * The loopback interface is open to every local user (and to web pages, through the browser), so each request must
+ * carry the token the daemon generates at startup in the {@value #TOKEN_HEADER} header. The token is written to a
+ * file only the user can read (see {@link #getTokenFile}), where the client reads it. Requests with an Origin header
+ * come from a browser, and are rejected.
+ */
+public class ScriptDaemon {
+
+    public static final int DEFAULT_PORT = 8642;
+    public static final String RUN_PATH = "/run";
+    public static final String TOKEN_HEADER = "X-Script-Daemon-Token";
+
+    // Far more than any command line has, but small enough that the count can be trusted as an array size
+    static final int MAX_ARGUMENTS = 1024;
+
+    static final int EXIT = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+
+    /**
+     * Starts the daemon, which runs until the JVM is stopped
+     *
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be bound or the token file cannot be written
+     */
+    public static void start(int port) throws IOException {
+        start(port, getDefaultTokenDirectory());
+    }
+
+    /**
+     * Starts the daemon, writing its token to the given directory
+     *
+     * @param port           the port to listen on, or 0 for any free port
+     * @param tokenDirectory the directory in which to write the token file
+     * @return the server, listening on its port
+     * @throws IOException if the port cannot be bound or the token file cannot be written
+     */
+    static HttpServer start(int port, Path tokenDirectory) throws IOException {
+        ScriptRunner.enableWarmRunners();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        final Path tokenFile = getTokenFile(tokenDirectory, server.getAddress().getPort());
+        final byte[] token;
+        try {
+            token = writeToken(tokenFile);
+        } catch (IOException ioe) {
+            server.stop(0);
+            throw ioe;
+        }
+        // Let scripts tidy up (in their stop hooks) when the daemon is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ScriptRunner.disableWarmRunners();
+            try {
+                Files.deleteIfExists(tokenFile);
+            } catch (IOException ignored) {
+                // The next daemon on this port replaces it
+            }
+        }));
+        server.createContext(RUN_PATH, exchange -> handleRun(exchange, token));
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "Script daemon")));
+        server.start();
+        System.out.println("Script daemon listening on " + server.getAddress() + ", press Ctrl-C to exit");
+        return server;
+    }
+
+    /**
+     * @return the directory the daemon's token file is written to by default, in the user's home directory
+     */
+    static Path getDefaultTokenDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".nifi-script-tester");
+    }
+
+    /**
+     * @param tokenDirectory the directory holding the token files
+     * @param port           the port the daemon is listening on
+     * @return the file holding the token of the daemon on the given port
+     */
+    static Path getTokenFile(Path tokenDirectory, int port) {
+        return tokenDirectory.resolve("daemon-" + port + ".token");
+    }
+
+    /**
+     * Generates a random token and writes it to the given file, which only the user can read
+     *
+     * @return the token
+     */
+    private static byte[] writeToken(Path tokenFile) throws IOException {
+        final byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        final StringBuilder token = new StringBuilder();
+        for (byte b : random) {
+            token.append(String.format("%02x", b));
+        }
+        final byte[] tokenBytes = token.toString().getBytes(StandardCharsets.US_ASCII);
+
+        final Path tokenDirectory = tokenFile.getParent();
+        final boolean posix = tokenDirectory.getFileSystem().supportedFileAttributeViews().contains("posix");
+        if (!Files.isDirectory(tokenDirectory)) {
+            if (posix) {
+                Files.createDirectories(tokenDirectory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(tokenDirectory);
+            }
+        }
+        // A token left by a daemon that was killed is replaced, never written through (it may not be the user's own)
+        Files.deleteIfExists(tokenFile);
+        if (posix) {
+            try (SeekableByteChannel channel = Files.newByteChannel(tokenFile, EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))) {
+                channel.write(ByteBuffer.wrap(tokenBytes));
+            }
+        } else {
+            Files.write(tokenFile, tokenBytes, StandardOpenOption.CREATE_NEW);
+            final File file = tokenFile.toFile();
+            if (!(file.setReadable(false, false) && file.setReadable(true, true) && file.setWritable(false, false) && file.setWritable(true, true))) {
+                Files.deleteIfExists(tokenFile);
+                throw new IOException("Unable to make the token file " + tokenFile + " private");
+            }
+        }
+        return tokenBytes;
+    }
+
+    private static void handleRun(HttpExchange exchange, byte[] token) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        final String requestToken = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+        if (exchange.getRequestHeaders().containsKey("Origin") || requestToken == null
+                || !MessageDigest.isEqual(token, requestToken.getBytes(StandardCharsets.US_ASCII))) {
+            exchange.sendResponseHeaders(403, -1);
+            exchange.close();
+            return;
+        }
+        final DataInputStream request = new DataInputStream(exchange.getRequestBody());
+        final int argCount = request.readInt();
+        if (argCount < 0 || argCount > MAX_ARGUMENTS) {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+        }
+        final String[] args = new String[argCount];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = request.readUTF();
+        }
+
+        exchange.sendResponseHeaders(200, 0);
+        final DataOutputStream response = new DataOutputStream(new BufferedOutputStream(exchange.getResponseBody()));
+        final PrintStream out = new PrintStream(new BufferedOutputStream(new FrameOutputStream(response, STDOUT)), false);
+        final PrintStream err = new PrintStream(new BufferedOutputStream(new FrameOutputStream(response, STDERR), 1024), true);
+
+        final InputStream stdin = System.in;
+        final PrintStream stdout = System.out;
+        final PrintStream stderr = System.err;
+        int status;
+        System.setIn(request);
+        System.setOut(out);
+        System.setErr(err);
+        try {
+            status = ScriptRunner.runWarm(args);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            status = 1;
+        } finally {
+            out.flush();
+            err.flush();
+            System.setIn(stdin);
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        synchronized (response) {
+            response.writeByte(EXIT);
+            response.writeInt(status);
+        }
+        response.close();
+        exchange.close();
+        stdout.println("Ran " + String.join(" ", args) + ": exit status " + status);
+    }
+
+    /**
+     * Writes to one channel of the response, as frames
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream response;
+        private final int channel;
+
+        FrameOutputStream(DataOutputStream response, int channel) {
+            this.response = response;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (response) {
+                response.writeByte(channel);
+                response.writeInt(len);
+                response.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (response) {
+                response.flush();
+            }
+        }
+    }
+}
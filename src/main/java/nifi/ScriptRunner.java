@@ -18,27 +18,52 @@ package nifi;
 
 import nifi.script.AccessibleExecuteScript;
 import nifi.script.AccessibleScriptingComponentHelper;
+import nifi.script.FileContentStore;
+import nifi.script.InstrumentedExecuteScript;
+import nifi.script.LatencyHistogram;
+import nifi.script.MemoryMetrics;
+import nifi.script.ScriptEngineRegistry;
+import nifi.script.ScriptProfiler;
 import nifi.script.ScriptingComponentUtils;
+import nifi.script.TriggerMetrics;
+import nifi.script.TriggerTimings;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
 import nifi.script.ExecuteScript;
 
+import javax.management.JMException;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.nio.file.FileVisitResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
 /**
  * The main entry class for testing ExecuteScript
@@ -47,8 +72,18 @@ public class ScriptRunner {
 
     public static String DASHED_LINE = "---------------------------------------------------------";
 
+    private static final long PROFILE_INTERVAL_MILLIS = 1;
+    private static final int MAX_PROFILE_LINES = 20;
+
     private static TestRunner runner;
     private static AccessibleScriptingComponentHelper scriptingComponent;
+    private static FileContentStore contentStore;
+    private static ResultWriter resultWriter;
+    private static NdjsonWriter ndjsonWriter;
+    private static TriggerTimings triggerTimings;
+    private static TriggerMetrics triggerMetrics;
+    private static ScriptProfiler profiler;
+    private static MemoryMetrics memoryMetrics;
 
     private static boolean outputAttributes = false;
     private static boolean outputContent = false;
@@ -58,10 +93,69 @@ public class ScriptRunner {
     private static String scriptPath = "";
     private static String modulePaths = "";
     private static String attrFile = "";
+    private static boolean persistModuleIndex = false;
+    private static String cacheDir = "";
+    private static int warmUpIterations = 0;
+    private static int batchSize = 0;
+    private static boolean watchScript = false;
+    private static byte[] stdinContent = null;
     private static int numFiles = 0;
+    private static boolean outputTiming = false;
+    private static boolean outputMetrics = false;
+    private static boolean profile = false;
+    private static boolean outputMemory = false;
+    private static String profileOutput = "";
+    private static int threads = 0;
+    private static boolean bench = false;
+    private static int benchWarmUpIterations = 3;
+    private static int benchIterations = 10;
+    private static String benchOutput = "";
+    private static boolean streamInput = false;
+    private static int waveFiles = 1000;
+    private static long waveBytes = 64 * 1024 * 1024;
+    private static boolean fileContent = false;
+    private static String fileContentDir = "";
+    private static Path stdinContentFile = null;
+    private static String outputDir = "";
+    private static String outputFormat = "text";
+    private static boolean base64Content = false;
+    private static long contentLimit = -1;
+    private static boolean readStdin = false;
+    private static int splitLines = 0;
+    private static String splitDelimiter = "";
+    private static int splitBytes = 0;
+    private static Path stdinSpoolFile = null;
+
+    // Processors kept scheduled between runs by the daemon, by script, engine and processor configuration
+    private static final int MAX_WARM_RUNNERS = 8;
+    private static Map<String, WarmRunner> warmRunners = null;
+    private static String warmRunnerKey = null;
 
     public static void main(String[] args) {
+        if (args != null && args.length > 0 && (args[0].equals("-daemon") || args[0].startsWith("-daemon="))) {
+            try {
+                ScriptDaemon.start(args[0].equals("-daemon") ? ScriptDaemon.DEFAULT_PORT : Integer.parseInt(args[0].substring("-daemon=".length())));
+            } catch (IOException ioe) {
+                System.err.println("Could not start the daemon: " + ioe.getLocalizedMessage());
+                exit(8);
+            }
+            return;
+        }
+        if (args != null && args.length > 0 && (args[0].equals("-client") || args[0].startsWith("-client="))) {
+            final String[] clientArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, clientArgs, 0, clientArgs.length);
+            try {
+                exit(ScriptClient.run(args[0].equals("-client") ? ScriptDaemon.DEFAULT_PORT : Integer.parseInt(args[0].substring("-client=".length())), clientArgs));
+            } catch (IOException ioe) {
+                System.err.println("Could not run on the daemon: " + ioe.getLocalizedMessage());
+                exit(8);
+            }
+            return;
+        }
 
+        // In the daemon, the JVM started long before this run
+        final long jvmStartupMillis = warmRunners == null ? ManagementFactory.getRuntimeMXBean().getUptime() : 0;
+        long phaseStart = System.nanoTime();
 
         // Expecting a single arg with the filename, will figure out language from file extension
         if (args == null || args.length < 1) {
@@ -72,12 +166,40 @@ public class ScriptRunner {
             System.err.println("   -no-success         Do not output information about flow files that were transferred to the success relationship. Defaults to false");
             System.err.println("   -content            Output flow file contents. Defaults to false");
             System.err.println("   -attrs              Output flow file attributes. Defaults to false");
+            System.err.println("   -format=<format>    The output format: text, or ndjson for one JSON object per flow file (with its relationship, size, attributes, content if -content is given, and trigger time). Defaults to text");
+            System.err.println("   -base64             Encode flow file contents as base64 in ndjson output. Defaults to false");
+            System.err.println("   -content-limit=<n>  Include at most n bytes of each flow file's contents in ndjson output. Defaults to no limit");
             System.err.println("   -all-rels           Output information about flow files that were transferred to any relationship. Defaults to false");
             System.err.println("   -all                Output content, attributes, etc. about flow files that were transferred to any relationship. Defaults to false");
             System.err.println("   -input=<directory>  Send each file in the specified directory as a flow file to the script");
+            System.err.println("   -output=<directory> Write the content of each flow file to <directory>/<relationship>/<filename>, and its attributes to <filename>.attributes, instead of outputting them");
+            System.err.println("   -stdin              Read standard input to the end as the input, even if nothing is available on it yet. Otherwise it is only read if input is waiting on it");
+            System.err.println("   -split-lines=<n>    Split standard input into flow files of n lines each, running them through the script in waves as they are read");
+            System.err.println("   -split-delimiter=<d> Split standard input into flow files at each occurrence of the delimiter (\\n, \\r, \\t and \\\\ are unescaped), running them through the script in waves as they are read");
+            System.err.println("   -split-bytes=<n>    Split standard input into flow files of n bytes each, running them through the script in waves as they are read");
+            System.err.println("   -threads=<n>        Trigger the script on n threads concurrently (with one script engine per thread), and output throughput and failures per thread");
+            System.err.println("   -bench              Benchmark the script: replay the input for warm-up and measured iterations, and output throughput and trigger latency percentiles. Exits with status 9 if any measured trigger fails");
+            System.err.println("   -bench-warmup=<n>   The number of warm-up iterations (not measured) when benchmarking. Defaults to 3");
+            System.err.println("   -bench-iterations=<n> The number of measured iterations when benchmarking. Defaults to 10");
+            System.err.println("   -bench-output=<file> Append the benchmark results as a line of JSON to the specified file, for tracking results over time");
+            System.err.println("   -stream             Read the input directory in waves (see -wave-files and -wave-bytes), reading the next wave while the script processes the current one");
+            System.err.println("   -wave-files=<n>     The maximum number of flow files in a wave when streaming. Defaults to 1000");
+            System.err.println("   -wave-bytes=<n>     The maximum number of bytes of content in a wave when streaming. Defaults to 67108864 (64 MB)");
+            System.err.println("   -file-content[=<directory>] Keep flow file content in files (in the specified directory, or a temporary one) rather than in memory, for input larger than the heap");
             System.err.println("   -modules=<paths>    Comma-separated list of paths (files or directories) containing script modules/JARs");
+            System.err.println("   -module-index       Store an index of the module JARs in their directory so later runs do not scan unchanged JARs");
             System.err.println("   -attrfile=<paths>   Path to a properties file specifying attributes to add to incoming flow files.");
-            System.exit(1);
+            System.err.println("   -cache=<directory>  Store compiled scripts in the specified directory so later runs of an unchanged script skip compilation");
+            System.err.println("   -warmup=<n>         Evaluate the script n times per engine against an empty session before processing flow files. Defaults to 0");
+            System.err.println("   -batch=<n>          Evaluate the script once per batch of up to n flow files, which are bound to the script as the list flowFiles, with one commit per batch. Defaults to 0 (the script gets its own flow files)");
+            System.err.println("   -watch              Keep running, and re-run the input through the script each time the script file is saved");
+            System.err.println("   -timing             Output the time spent in each phase of startup and execution. Defaults to false");
+            System.err.println("   -memory             Output the bytes the script allocates per trigger, per flow file and per input byte, and the garbage collections and peak heap and metaspace usage. Defaults to false");
+            System.err.println("   -profile[=<file>]   Sample the script while it runs, and output the lines it spends the most time on. The sampled stacks are written to the specified file (defaults to <script file>.collapsed) for flame graph tools");
+            System.err.println("   -metrics            Output the time spent in each phase of the script's triggers (engine acquisition, bindings, evaluation, commit, rollback), which are also available over JMX while running. Defaults to false");
+            System.err.println("   -daemon[=<port>]    (First option) Keep running and take runs from clients on the loopback interface, keeping script engines warm between runs. The port defaults to " + ScriptDaemon.DEFAULT_PORT + ". Clients authenticate with a token the daemon writes to ~/.nifi-script-tester");
+            System.err.println("   -client[=<port>]    (First option) Send the run (with the other options) to a daemon and output its results");
+            exit(1);
         }
 
         // Reset option flags
@@ -87,8 +209,48 @@ public class ScriptRunner {
         outputFailure = false;
         scriptPath = "";
         inputFileDir = "";
+        modulePaths = "";
         attrFile = "";
+        persistModuleIndex = false;
+        cacheDir = "";
+        warmUpIterations = 0;
+        batchSize = 0;
+        watchScript = false;
+        stdinContent = null;
+        readStdin = false;
+        splitLines = 0;
+        splitDelimiter = "";
+        splitBytes = 0;
+        stdinSpoolFile = null;
         numFiles = 0;
+        outputTiming = false;
+        outputMetrics = false;
+        profile = false;
+        profileOutput = "";
+        outputMemory = false;
+        threads = 0;
+        bench = false;
+        benchWarmUpIterations = 3;
+        benchIterations = 10;
+        benchOutput = "";
+        streamInput = false;
+        waveFiles = 1000;
+        waveBytes = 64 * 1024 * 1024;
+        fileContent = false;
+        fileContentDir = "";
+        stdinContentFile = null;
+        outputDir = "";
+        outputFormat = "text";
+        base64Content = false;
+        contentLimit = -1;
+        // Leave nothing from an earlier run (in the daemon) to be tidied up by this one
+        runner = null;
+        triggerMetrics = null;
+        profiler = null;
+        memoryMetrics = null;
+        warmRunnerKey = null;
+        contentStore = null;
+        resultWriter = null;
 
         for (String arg : args) {
             if ("-all".equals(arg)) {
@@ -111,47 +273,214 @@ public class ScriptRunner {
                 outputAttributes = true;
             } else if (arg.startsWith("-input=")) {
                 inputFileDir = arg.substring("-input=".length());
+            } else if (arg.startsWith("-format=")) {
+                outputFormat = arg.substring("-format=".length()).toLowerCase();
+            } else if ("-base64".equals(arg)) {
+                base64Content = true;
+            } else if (arg.startsWith("-content-limit=")) {
+                contentLimit = Long.parseLong(arg.substring("-content-limit=".length()));
+            } else if (arg.startsWith("-output=")) {
+                outputDir = arg.substring("-output=".length());
+            } else if ("-stdin".equals(arg)) {
+                readStdin = true;
+            } else if (arg.startsWith("-split-lines=")) {
+                splitLines = Integer.parseInt(arg.substring("-split-lines=".length()));
+            } else if (arg.startsWith("-split-delimiter=")) {
+                splitDelimiter = unescape(arg.substring("-split-delimiter=".length()));
+            } else if (arg.startsWith("-split-bytes=")) {
+                splitBytes = Integer.parseInt(arg.substring("-split-bytes=".length()));
+            } else if (arg.startsWith("-threads=")) {
+                threads = Integer.parseInt(arg.substring("-threads=".length()));
+            } else if ("-bench".equals(arg)) {
+                bench = true;
+            } else if (arg.startsWith("-bench-warmup=")) {
+                benchWarmUpIterations = Integer.parseInt(arg.substring("-bench-warmup=".length()));
+            } else if (arg.startsWith("-bench-iterations=")) {
+                benchIterations = Integer.parseInt(arg.substring("-bench-iterations=".length()));
+            } else if (arg.startsWith("-bench-output=")) {
+                benchOutput = arg.substring("-bench-output=".length());
+            } else if ("-stream".equals(arg)) {
+                streamInput = true;
+            } else if (arg.startsWith("-wave-files=")) {
+                waveFiles = Integer.parseInt(arg.substring("-wave-files=".length()));
+            } else if (arg.startsWith("-wave-bytes=")) {
+                waveBytes = Long.parseLong(arg.substring("-wave-bytes=".length()));
+            } else if ("-file-content".equals(arg)) {
+                fileContent = true;
+            } else if (arg.startsWith("-file-content=")) {
+                fileContent = true;
+                fileContentDir = arg.substring("-file-content=".length());
             } else if (arg.startsWith("-modules=")) {
                 modulePaths = arg.substring("-modules=".length());
+            } else if ("-module-index".equals(arg)) {
+                persistModuleIndex = true;
             } else if (arg.startsWith("-attrfile=")) {
                 attrFile = arg.substring("-attrfile=".length());
+            } else if (arg.startsWith("-cache=")) {
+                cacheDir = arg.substring("-cache=".length());
+            } else if ("-watch".equals(arg)) {
+                watchScript = true;
+            } else if ("-timing".equals(arg)) {
+                outputTiming = true;
+            } else if ("-metrics".equals(arg)) {
+                outputMetrics = true;
+            } else if ("-memory".equals(arg)) {
+                outputMemory = true;
+            } else if ("-profile".equals(arg)) {
+                profile = true;
+            } else if (arg.startsWith("-profile=")) {
+                profile = true;
+                profileOutput = arg.substring("-profile=".length());
+            } else if (arg.startsWith("-warmup=")) {
+                warmUpIterations = Integer.parseInt(arg.substring("-warmup=".length()));
+            } else if (arg.startsWith("-batch=")) {
+                batchSize = Integer.parseInt(arg.substring("-batch=".length()));
             } else {
                 scriptPath = arg;
             }
         }
+        if (watchScript && warmRunners != null) {
+            System.err.println("Watching is not supported by the daemon, which reloads changed scripts itself");
+            watchScript = false;
+        }
+        if (!"text".equals(outputFormat) && !"ndjson".equals(outputFormat)) {
+            System.err.println("Unknown output format: " + outputFormat);
+            exit(1);
+        }
+        // Keep standard output for the results, sending anything else written to it (by the script, or logging) to standard error
+        final PrintStream stdout = System.out;
+        if ("ndjson".equals(outputFormat)) {
+            System.setOut(System.err);
+        }
         File scriptFile = new File(scriptPath);
         if (!scriptFile.exists()) {
             System.err.println("Script file not found: " + args[0]);
-            System.exit(2);
+            exit(2);
         }
 
         String extension = scriptPath.substring(scriptPath.lastIndexOf(".") + 1).toLowerCase();
         String scriptEngineName = "Groovy";
+        String scriptEngineFactoryClassName = "org.codehaus.groovy.jsr223.GroovyScriptEngineFactory";
         if ("js".equals(extension)) {
             scriptEngineName = "ECMAScript";
+            scriptEngineFactoryClassName = "jdk.nashorn.api.scripting.NashornScriptEngineFactory";
         } else if ("py".equals(extension)) {
             scriptEngineName = "python";
+            scriptEngineFactoryClassName = "org.python.jsr223.PyScriptEngineFactory";
         } else if ("rb".equals(extension)) {
             scriptEngineName = "ruby";
+            scriptEngineFactoryClassName = "org.jruby.embed.jsr223.JRubyEngineFactory";
         } else if ("lua".equals(extension)) {
             scriptEngineName = "lua";
+            scriptEngineFactoryClassName = "org.luaj.vm2.script.LuaScriptEngineFactory";
+        }
+        final Map<String, Long> timings = new LinkedHashMap<>();
+        timings.put("JVM startup", TimeUnit.MILLISECONDS.toNanos(jvmStartupMillis));
+        phaseStart = recordTiming(timings, "Argument parsing", phaseStart);
+
+        contentStore = null;
+        if (fileContent) {
+            try {
+                contentStore = new FileContentStore(fileContentDir.isEmpty() ? null : Paths.get(fileContentDir));
+            } catch (IOException ioe) {
+                System.err.println("Could not create content directory: " + ioe.getLocalizedMessage());
+                exit(6);
+            }
+            if (warmRunners == null) {
+                final FileContentStore store = contentStore;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        store.close();
+                    } catch (IOException ignored) {
+                        // Nothing more can be done while exiting
+                    }
+                }));
+            }
+        }
+        resultWriter = null;
+        if (!outputDir.isEmpty()) {
+            try {
+                resultWriter = new ResultWriter(Paths.get(outputDir), contentStore, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            } catch (IOException ioe) {
+                System.err.println("Could not create output directory: " + outputDir + ", reason: " + ioe.getLocalizedMessage());
+                exit(7);
+            }
+        }
+        ndjsonWriter = null;
+        triggerTimings = null;
+        if ("ndjson".equals(outputFormat)) {
+            ndjsonWriter = new NdjsonWriter(stdout, contentStore, outputContent, base64Content, contentLimit);
+            triggerTimings = new TriggerTimings();
         }
 
-        final ExecuteScript executeScript = new AccessibleExecuteScript();
-        // Need to do something to initialize the properties, like retrieve the list of properties
-        executeScript.getSupportedPropertyDescriptors();
+        // The daemon keeps processors scheduled between runs, as does watch mode between re-runs
+        final boolean keepScheduled = watchScript || warmRunners != null;
+        final boolean instrumented = threads > 0 || bench;
+        warmRunnerKey = String.join("\n", new File(scriptPath).getAbsolutePath(), scriptEngineName, modulePaths, Boolean.toString(persistModuleIndex),
+                cacheDir, Integer.toString(warmUpIterations), Integer.toString(batchSize), Integer.toString(threads), Boolean.toString(instrumented));
+        final WarmRunner warmRunner = warmRunners == null ? null : warmRunners.get(warmRunnerKey);
+        final ExecuteScript executeScript;
+        if (warmRunner != null) {
+            executeScript = warmRunner.executeScript;
+            runner = warmRunner.runner;
+            scriptingComponent = (AccessibleScriptingComponentHelper) executeScript;
+            setSessionDecorator((AccessibleExecuteScript) executeScript);
+            phaseStart = recordTiming(timings, "Engine discovery", phaseStart);
+        } else {
+            // Only load the engine for the script's language, rather than every engine on the classpath
+            executeScript = instrumented ? new InstrumentedExecuteScript() : new AccessibleExecuteScript();
+            ((AccessibleScriptingComponentHelper) executeScript).getScriptingComponentHelper().setScriptEngineRegistry(
+                    ScriptEngineRegistry.getInstance(Thread.currentThread().getContextClassLoader(), scriptEngineFactoryClassName));
+            // Need to do something to initialize the properties, like retrieve the list of properties
+            executeScript.getSupportedPropertyDescriptors();
+            setSessionDecorator((AccessibleExecuteScript) executeScript);
+            phaseStart = recordTiming(timings, "Engine discovery", phaseStart);
 
-        runner = TestRunners.newTestRunner(executeScript);
-        scriptingComponent = (AccessibleScriptingComponentHelper) executeScript;
+            runner = TestRunners.newTestRunner(executeScript);
+            scriptingComponent = (AccessibleScriptingComponentHelper) executeScript;
 
-        runner.setValidateExpressionUsage(false);
-        runner.setProperty(scriptingComponent.getScriptingComponentHelper().SCRIPT_ENGINE, scriptEngineName);
-        runner.setProperty(ScriptingComponentUtils.SCRIPT_FILE, scriptPath);
-        if (!modulePaths.isEmpty()) {
-            runner.setProperty(ScriptingComponentUtils.MODULES, modulePaths);
-        }
+            runner.setValidateExpressionUsage(false);
+            if (threads > 0) {
+                // This also sets the maximum number of concurrent tasks, so an engine is created per thread
+                runner.setThreadCount(threads);
+            }
+            runner.setProperty(scriptingComponent.getScriptingComponentHelper().SCRIPT_ENGINE, scriptEngineName);
+            runner.setProperty(ScriptingComponentUtils.SCRIPT_FILE, scriptPath);
+            if (!modulePaths.isEmpty()) {
+                runner.setProperty(ScriptingComponentUtils.MODULES, modulePaths);
+            }
+            runner.setProperty(ScriptingComponentUtils.PERSIST_MODULE_INDEX, Boolean.toString(persistModuleIndex));
+            if (!cacheDir.isEmpty()) {
+                runner.setProperty(ScriptingComponentUtils.COMPILED_SCRIPT_CACHE, cacheDir);
+            }
+            runner.setProperty(ScriptingComponentUtils.WARM_UP_ITERATIONS, Integer.toString(warmUpIterations));
+            runner.setProperty(ScriptingComponentUtils.BATCH_SIZE, Integer.toString(batchSize));
+            // The daemon reloads a changed script so its warm processor runs the current version
+            runner.setProperty(ScriptingComponentUtils.RELOAD_SCRIPT_FILE, Boolean.toString(keepScheduled));
 
-        runner.assertValid();
+            runner.assertValid();
+            if (warmRunners != null) {
+                warmRunners.put(warmRunnerKey, new WarmRunner(executeScript, runner));
+            }
+        }
+        if (outputMetrics) {
+            triggerMetrics = new TriggerMetrics();
+            try {
+                triggerMetrics.registerMBeans(executeScript.getIdentifier());
+            } catch (JMException jme) {
+                System.err.println("Could not register the trigger metrics with JMX: " + jme.getLocalizedMessage());
+            }
+        }
+        ((AccessibleExecuteScript) executeScript).setTriggerMetrics(triggerMetrics);
+        if (profile) {
+            profiler = new ScriptProfiler(scriptFile.getName(), PROFILE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        ((AccessibleExecuteScript) executeScript).setProfiler(profiler);
+        if (outputMemory) {
+            memoryMetrics = new MemoryMetrics();
+        }
+        ((AccessibleExecuteScript) executeScript).setMemoryMetrics(memoryMetrics);
+        phaseStart = recordTiming(timings, "Processor initialization", phaseStart);
 
         // Get incoming attributes from file (if specified)
         Map<String, String> incomingAttributes = new HashMap<>();
@@ -159,7 +488,7 @@ public class ScriptRunner {
         if (!attrFile.isEmpty()) {
             if (!Files.exists(attrFilePath)) {
                 System.err.println("Attribute file does not exist: " + attrFile);
-                System.exit(5);
+                exit(5);
             } else {
                 try {
                     Properties p = new Properties();
@@ -167,52 +496,298 @@ public class ScriptRunner {
                     p.forEach((k, v) -> incomingAttributes.put(k.toString(), v.toString()));
                 } catch (IOException ioe) {
                     System.err.println("Could not read properties file: " + attrFile + ", reason: " + ioe.getLocalizedMessage());
-                    System.exit(5);
+                    exit(5);
                 }
             }
         }
 
-        try {
-            if (inputFileDir.isEmpty()) {
-                int available = System.in.available();
-                if (available > 0) {
-                    InputStreamReader isr = new InputStreamReader(System.in);
-                    char[] input = new char[available];
-                    isr.read(input);
-                    runner.enqueue(new String(input), incomingAttributes);
+        if (bench) {
+            long failedTriggers = 0;
+            try {
+                failedTriggers = runBenchmark((InstrumentedExecuteScript) executeScript, incomingAttributes, scriptEngineName, warmRunner == null, !keepScheduled);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+            if (triggerMetrics != null) {
+                outputTriggerMetrics(triggerMetrics);
+            }
+            if (profiler != null) {
+                outputProfile(profiler);
+            }
+            if (memoryMetrics != null) {
+                outputMemoryMetrics(memoryMetrics);
+            }
+            if (failedTriggers > 0) {
+                // The throughput of a failing script means nothing, so don't let it pass for a result
+                exit(9);
+            }
+            finishRun(stdout);
+            return;
+        }
+
+        // An input directory is streamed if requested, and standard input is streamed when it is split into records
+        final boolean splitting = inputFileDir.isEmpty() && (splitLines > 0 || !splitDelimiter.isEmpty() || splitBytes > 0);
+        final boolean streaming = (streamInput && !inputFileDir.isEmpty()) || splitting;
+        if (!streaming) {
+            try {
+                enqueueInputs(incomingAttributes);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+        recordTiming(timings, "Input loading", phaseStart);
+
+        // In watch mode, the script is reloaded by the processor when it changes, which releases a permit here
+        final Semaphore scriptReloaded = new Semaphore(0);
+        if (watchScript) {
+            scriptingComponent.getScriptingComponentHelper().addScriptReloadListener(scriptReloaded::release);
+        }
+        boolean initialize = warmRunner == null;
+        boolean firstRun = true;
+        while (true) {
+            final long runStart = System.nanoTime();
+            if (streaming) {
+                // Each wave is output as it completes
+                try {
+                    runWaves(executeScript, incomingAttributes, initialize, !keepScheduled);
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
                 }
+            } else if (keepScheduled) {
+                // Keep the processor scheduled between runs so the engines stay warm
+                runner.run(triggers(numFiles), false, initialize);
+            } else if (triggers(numFiles) > 1) {
+                runner.run(triggers(numFiles));
             } else {
-                // Read flow files in from the folder
-                Path inputFiles = Paths.get(inputFileDir);
-                if (!Files.exists(inputFiles)) {
-                    System.err.println("Input file directory does not exist: " + inputFileDir);
-                    System.exit(3);
+                runner.run();
+            }
+            long executionNanos = System.nanoTime() - runStart;
+            if (firstRun) {
+                if (initialize) {
+                    // Split the first run into the processor's setup phases and the triggers themselves
+                    for (Map.Entry<String, Long> setupTiming : executeScript.getSetupTimings().entrySet()) {
+                        timings.put(setupTiming.getKey(), setupTiming.getValue());
+                        executionNanos -= setupTiming.getValue();
+                    }
                 }
-                if (!Files.isDirectory(inputFiles)) {
-                    System.err.println("Input file location is not a directory: " + inputFileDir);
-                    System.exit(4);
+                timings.put("Script execution", executionNanos);
+            }
+            if (!streaming) {
+                outputFlowFiles();
+            }
+            if (executeScript instanceof InstrumentedExecuteScript) {
+                InstrumentedExecuteScript instrumentedExecuteScript = (InstrumentedExecuteScript) executeScript;
+                outputThreadStatistics(instrumentedExecuteScript.getThreadStatistics(), executionNanos);
+                instrumentedExecuteScript.resetThreadStatistics();
+            }
+            if (triggerMetrics != null) {
+                outputTriggerMetrics(triggerMetrics);
+                triggerMetrics.reset();
+            }
+            if (profiler != null) {
+                outputProfile(profiler);
+                profiler.reset();
+            }
+            if (memoryMetrics != null) {
+                outputMemoryMetrics(memoryMetrics);
+                memoryMetrics.start();
+            }
+            if (outputTiming && firstRun) {
+                outputTimings(timings);
+            }
+            if (!watchScript) {
+                break;
+            }
+
+            initialize = false;
+            firstRun = false;
+            runner.clearTransferState();
+            flushResults();
+            if (resultWriter != null) {
+                resultWriter.reset();
+            }
+            clearContentStore();
+            console().println("Watching " + scriptPath + " for changes, press Ctrl-C to exit\n");
+            scriptReloaded.acquireUninterruptibly();
+            scriptReloaded.drainPermits();
+            numFiles = 0;
+            if (!streaming) {
+                try {
+                    enqueueInputs(incomingAttributes);
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
                 }
-                Files.walkFileTree(inputFiles, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        if (attrs.isRegularFile()) {
-                            incomingAttributes.put("filename", file.getFileName().toString());
-                            runner.enqueue(Files.readAllBytes(file), incomingAttributes);
-                            numFiles++;
-                        }
-                        return FileVisitResult.CONTINUE;
+            }
+        }
+        finishRun(stdout);
+    }
+
+    /**
+     * Tidies up after a run: restores standard output, and in the daemon, releases what the run used and readies its
+     * processor for the next run
+     */
+    private static void finishRun(PrintStream stdout) {
+        if (resultWriter != null) {
+            try {
+                resultWriter.close();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+            resultWriter = null;
+        }
+        if (triggerMetrics != null) {
+            triggerMetrics.unregisterMBeans();
+        }
+        if (profiler != null) {
+            profiler.close();
+        }
+        System.setOut(stdout);
+        if (warmRunners == null || runner == null) {
+            return;
+        }
+        runner.clearTransferState();
+        runner.clearProvenanceEvents();
+        if (runner.getQueueSize().getObjectCount() > 0) {
+            // Flow files the script didn't take would be processed by the next run
+            discardWarmRunner();
+        }
+        if (contentStore != null) {
+            try {
+                contentStore.close();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+        for (Path stdinFile : new Path[]{stdinContentFile, stdinSpoolFile}) {
+            if (stdinFile != null) {
+                try {
+                    Files.deleteIfExists(stdinFile);
+                } catch (IOException ignored) {
+                    // Deleted on exit
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes runs keep their processors scheduled (with their engines created and script compiled) for later runs
+     * with the same script, engine and processor configuration. Used by the daemon.
+     */
+    static synchronized void enableWarmRunners() {
+        if (warmRunners == null) {
+            warmRunners = new LinkedHashMap<String, WarmRunner>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, WarmRunner> eldest) {
+                    if (size() > MAX_WARM_RUNNERS) {
+                        eldest.getValue().executeScript.stop();
+                        return true;
                     }
-                });
+                    return false;
+                }
+            };
+        }
+    }
+
+    /**
+     * Stops the processors kept for later runs, and goes back to stopping processors at the end of each run
+     */
+    static synchronized void disableWarmRunners() {
+        if (warmRunners != null) {
+            for (WarmRunner warmRunner : warmRunners.values()) {
+                warmRunner.executeScript.stop();
             }
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+            warmRunners = null;
         }
+    }
 
-        if (numFiles > 1) {
-            runner.run(numFiles);
-        } else {
-            runner.run();
+    /**
+     * Runs with the given arguments, reusing a warm processor if there is one. Used by the daemon.
+     *
+     * @param args the arguments, as for {@link #main}
+     * @return the exit status
+     */
+    static synchronized int runWarm(String[] args) {
+        try {
+            main(args);
+            return 0;
+        } catch (ExitException ee) {
+            finishRun(System.out);
+            return ee.status;
+        } catch (Throwable t) {
+            // The processor may be in any state
+            discardWarmRunner();
+            finishRun(System.out);
+            throw t;
+        }
+    }
+
+    private static void discardWarmRunner() {
+        final WarmRunner warmRunner = warmRunnerKey == null ? null : warmRunners.remove(warmRunnerKey);
+        if (warmRunner != null) {
+            warmRunner.executeScript.stop();
+        }
+    }
+
+    /**
+     * Exits the JVM with the given status, or in the daemon, ends the run with it
+     */
+    private static void exit(int status) {
+        if (warmRunners != null) {
+            throw new ExitException(status);
+        }
+        System.exit(status);
+    }
+
+    private static class ExitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        ExitException(int status) {
+            super("Exit status " + status, null, false, false);
+            this.status = status;
+        }
+    }
+
+    /**
+     * A processor kept scheduled between runs, and its test runner
+     */
+    private static class WarmRunner {
+        private final ExecuteScript executeScript;
+        private final TestRunner runner;
+
+        WarmRunner(ExecuteScript executeScript, TestRunner runner) {
+            this.executeScript = executeScript;
+            this.runner = runner;
+        }
+    }
+
+    /**
+     * Wraps the sessions given to the script for the options in effect: keeping content in files, and timing triggers
+     */
+    private static void setSessionDecorator(AccessibleExecuteScript executeScript) {
+        UnaryOperator<ProcessSession> decorator = null;
+        if (contentStore != null) {
+            decorator = contentStore::wrap;
+        }
+        if (triggerTimings != null) {
+            final UnaryOperator<ProcessSession> inner = decorator;
+            decorator = inner == null ? triggerTimings::wrap : session -> triggerTimings.wrap(inner.apply(session));
         }
+        executeScript.setSessionDecorator(decorator);
+    }
+
+    /**
+     * @return the stream for messages: standard output, or standard error when standard output is reserved for
+     * machine-readable results
+     */
+    private static PrintStream console() {
+        return ndjsonWriter == null ? System.out : System.err;
+    }
+
+    private static void outputFlowFiles() {
         if (outputSuccess) {
             outputFlowFilesForRelationship(ExecuteScript.REL_SUCCESS);
         }
@@ -222,10 +797,541 @@ public class ScriptRunner {
         }
     }
 
+    /**
+     * Runs the files in the input directory (or the records split from standard input) through the script in waves,
+     * outputting and then discarding the results of each wave before the next, while the next wave is read in the
+     * background.
+     *
+     * @param executeScript      the processor, which is stopped after the last wave if requested
+     * @param incomingAttributes attributes to add to each flow file
+     * @param initialize         whether to schedule the processor before the first wave
+     * @param stopOnFinish       whether to stop the processor after the last wave
+     */
+    private static void runWaves(ExecuteScript executeScript, Map<String, String> incomingAttributes, boolean initialize, boolean stopOnFinish) throws IOException {
+        final InputWaves.InputSource source;
+        final String total;
+        InputStream stdin = null;
+        if (inputFileDir.isEmpty()) {
+            stdin = openStdin();
+            source = createRecordSplitter(stdin, incomingAttributes);
+            total = "";
+        } else {
+            final List<Path> inputFiles = listInputFiles();
+            final Iterator<Path> inputFileIterator = inputFiles.iterator();
+            source = () -> {
+                if (!inputFileIterator.hasNext()) {
+                    return null;
+                }
+                Path file = inputFileIterator.next();
+                Map<String, String> attributes = new HashMap<>(incomingAttributes);
+                attributes.put("filename", file.getFileName().toString());
+                return readInput(file, attributes);
+            };
+            total = " of " + inputFiles.size();
+        }
+
+        try (InputWaves waves = new InputWaves(source, waveFiles, waveBytes)) {
+            List<InputWaves.Input> wave = waves.nextWave();
+            if (wave == null) {
+                // No input, but the script may generate flow files itself
+                runner.run(1, stopOnFinish, initialize);
+                outputFlowFiles();
+                return;
+            }
+            int waveNumber = 0;
+            int filesRead = 0;
+            while (wave != null) {
+                for (InputWaves.Input input : wave) {
+                    enqueue(input);
+                }
+                filesRead += wave.size();
+                numFiles = wave.size();
+                // Drop the references to the content, as the flow files now hold it
+                wave = null;
+                runner.run(triggers(numFiles), false, initialize && waveNumber == 0);
+                waveNumber++;
+                console().println("Wave " + waveNumber + ": " + numFiles + " flow file(s), " + filesRead + total + " read\n");
+                outputFlowFiles();
+                runner.clearTransferState();
+                runner.clearProvenanceEvents();
+                clearContentStore();
+                wave = waves.nextWave();
+            }
+        } finally {
+            // Close the copy of standard input, if any
+            if (stdin != null && stdin != System.in) {
+                stdin.close();
+            }
+        }
+        if (stopOnFinish) {
+            executeScript.stop();
+        }
+    }
+
+    /**
+     * Lists the regular files in the input directory (and its subdirectories), exiting if it is not a directory
+     */
+    private static List<Path> listInputFiles() throws IOException {
+        Path inputFiles = Paths.get(inputFileDir);
+        if (!Files.exists(inputFiles)) {
+            System.err.println("Input file directory does not exist: " + inputFileDir);
+            exit(3);
+        }
+        if (!Files.isDirectory(inputFiles)) {
+            System.err.println("Input file location is not a directory: " + inputFileDir);
+            exit(4);
+        }
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(inputFiles, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Enqueues the input (the contents of standard input, or each file in the input directory) as flow files. The
+     * contents of standard input are kept so the same input can be enqueued again when re-running a changed script.
+     */
+    private static void enqueueInputs(Map<String, String> incomingAttributes) throws IOException {
+        if (inputFileDir.isEmpty()) {
+            InputWaves.Input input = readStdinInput(incomingAttributes);
+            if (input != null) {
+                enqueue(input);
+            }
+        } else {
+            // Read flow files in from the folder
+            for (Path file : listInputFiles()) {
+                incomingAttributes.put("filename", file.getFileName().toString());
+                enqueue(readInput(file, incomingAttributes));
+                numFiles++;
+            }
+        }
+    }
+
+    /**
+     * Reads an input file, or (when flow file content is kept in files) just refers to it
+     */
+    private static InputWaves.Input readInput(Path file, Map<String, String> attributes) throws IOException {
+        if (contentStore != null) {
+            return new InputWaves.Input(file, Files.size(file), attributes);
+        }
+        return new InputWaves.Input(Files.readAllBytes(file), attributes);
+    }
+
+    private static void enqueue(InputWaves.Input input) {
+        if (memoryMetrics != null) {
+            memoryMetrics.recordInput(input.getSize());
+        }
+        if (input.getContentFile() != null) {
+            contentStore.setContent(runner.enqueue(new byte[0], input.getAttributes()), input.getContentFile());
+        } else {
+            runner.enqueue(input.getContent(), input.getAttributes());
+        }
+    }
+
+    /**
+     * @return the number of triggers to process the given number of flow files: one per flow file, or in batch mode,
+     * one per batch. There is always at least one, as the script may generate flow files itself
+     */
+    private static int triggers(int flowFiles) {
+        final int triggers = batchSize > 0 ? (flowFiles + batchSize - 1) / batchSize : flowFiles;
+        return Math.max(triggers, 1);
+    }
+
+    /**
+     * Deletes the content of the flow files from the last run, once they have been output
+     */
+    private static void clearContentStore() {
+        if (triggerTimings != null) {
+            triggerTimings.clear();
+        }
+        if (contentStore != null) {
+            // The result writer may still be reading the content
+            flushResults();
+            contentStore.clear();
+        }
+    }
+
+    /**
+     * Waits for the result flow files output so far to be written to the output directory
+     */
+    private static void flushResults() {
+        if (resultWriter != null) {
+            try {
+                resultWriter.flush();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Reads standard input to the end (once), keeping it so the same input can be used again. When flow file content
+     * is kept in files, standard input is copied to a file instead.
+     *
+     * @param attributes the attributes for the input
+     * @return the input, or null if there is none
+     */
+    private static InputWaves.Input readStdinInput(Map<String, String> attributes) throws IOException {
+        if (contentStore != null) {
+            if (stdinContentFile == null && hasStdinInput()) {
+                stdinContentFile = Files.createTempFile("nifi-script-stdin", ".bin");
+                stdinContentFile.toFile().deleteOnExit();
+                Files.copy(System.in, stdinContentFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return stdinContentFile == null ? null : new InputWaves.Input(stdinContentFile, Files.size(stdinContentFile), attributes);
+        }
+        if (stdinContent == null && hasStdinInput()) {
+            stdinContent = IOUtils.toByteArray(System.in);
+        }
+        return stdinContent == null || stdinContent.length == 0 ? null : new InputWaves.Input(stdinContent, attributes);
+    }
+
+    /**
+     * Standard input is read if asked for, or if input is already waiting on it; otherwise reading it would wait for
+     * input from the terminal
+     */
+    private static boolean hasStdinInput() throws IOException {
+        return readStdin || System.in.available() > 0;
+    }
+
+    /**
+     * Opens standard input for splitting. When watching the script, what is read is also copied to a temporary file,
+     * which is read instead when the script is re-run.
+     */
+    private static InputStream openStdin() throws IOException {
+        if (stdinSpoolFile != null) {
+            return Files.newInputStream(stdinSpoolFile);
+        }
+        if (watchScript) {
+            stdinSpoolFile = Files.createTempFile("nifi-script-stdin", ".bin");
+            stdinSpoolFile.toFile().deleteOnExit();
+            return new TeeInputStream(System.in, Files.newOutputStream(stdinSpoolFile), true);
+        }
+        return System.in;
+    }
+
+    private static RecordSplitter createRecordSplitter(InputStream in, Map<String, String> attributes) {
+        if (splitLines > 0) {
+            return RecordSplitter.byLines(in, splitLines, attributes);
+        } else if (!splitDelimiter.isEmpty()) {
+            return RecordSplitter.byDelimiter(in, splitDelimiter.getBytes(StandardCharsets.UTF_8), attributes);
+        }
+        return RecordSplitter.byBytes(in, splitBytes, attributes);
+    }
+
+    /**
+     * Unescapes \n, \r, \t and \\ in a command-line argument, so delimiters such as line breaks can be given
+     */
+    private static String unescape(String arg) {
+        final StringBuilder unescaped = new StringBuilder(arg.length());
+        for (int i = 0; i < arg.length(); i++) {
+            char c = arg.charAt(i);
+            if (c == '\\' && i + 1 < arg.length()) {
+                char next = arg.charAt(++i);
+                switch (next) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case '\\':
+                        c = '\\';
+                        break;
+                    default:
+                        unescaped.append(c);
+                        c = next;
+                        break;
+                }
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * Replays the input through the script for the warm-up and then the measured iterations, and outputs the
+     * throughput and the latency percentiles of the triggers in the measured iterations, along with how many of them
+     * failed or rolled back. The time to schedule the processor (creating engines, compiling the script) is not
+     * measured.
+     *
+     * @param executeScript      the processor, which records the latency of each trigger
+     * @param incomingAttributes attributes to add to each flow file
+     * @param scriptEngineName   the name of the script engine, for the results
+     * @param initialize         whether to schedule the processor, rather than using one already scheduled
+     * @param stopOnFinish       whether to stop the processor at the end
+     * @return the number of measured triggers that failed
+     */
+    private static long runBenchmark(InstrumentedExecuteScript executeScript, Map<String, String> incomingAttributes, String scriptEngineName,
+                                     boolean initialize, boolean stopOnFinish) throws IOException {
+        final List<InputWaves.Input> inputs = new ArrayList<>();
+        if (inputFileDir.isEmpty()) {
+            InputWaves.Input input = readStdinInput(incomingAttributes);
+            if (input != null) {
+                inputs.add(input);
+            }
+        } else {
+            for (Path file : listInputFiles()) {
+                Map<String, String> attributes = new HashMap<>(incomingAttributes);
+                attributes.put("filename", file.getFileName().toString());
+                inputs.add(readInput(file, attributes));
+            }
+        }
+        long inputBytes = 0;
+        for (InputWaves.Input input : inputs) {
+            inputBytes += input.getSize();
+        }
+        final int triggersPerIteration = triggers(inputs.size());
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+        executeScript.setLatencyHistogram(histogram);
+        long measuredNanos = 0;
+        for (int i = 0; i < benchWarmUpIterations + benchIterations; i++) {
+            if (i == benchWarmUpIterations) {
+                histogram.reset();
+                executeScript.resetThreadStatistics();
+                if (memoryMetrics != null) {
+                    // Only the measured iterations count
+                    memoryMetrics.start();
+                }
+            }
+            for (InputWaves.Input input : inputs) {
+                enqueue(input);
+            }
+            final long start = System.nanoTime();
+            runner.run(triggersPerIteration, false, initialize && i == 0);
+            long elapsed = System.nanoTime() - start;
+            if (initialize && i == 0) {
+                for (long setupNanos : executeScript.getSetupTimings().values()) {
+                    elapsed -= setupNanos;
+                }
+            }
+            if (i >= benchWarmUpIterations) {
+                measuredNanos += elapsed;
+            }
+            runner.clearTransferState();
+            runner.clearProvenanceEvents();
+            clearContentStore();
+        }
+        if (stopOnFinish) {
+            executeScript.stop();
+        }
+
+        long failures = 0;
+        long rollbacks = 0;
+        Throwable firstFailure = null;
+        for (InstrumentedExecuteScript.ThreadStatistics statistics : executeScript.getThreadStatistics()) {
+            failures += statistics.getFailures();
+            rollbacks += statistics.getRollbacks();
+            if (firstFailure == null) {
+                firstFailure = statistics.getFirstFailure();
+            }
+        }
+        executeScript.resetThreadStatistics();
+
+        final double seconds = measuredNanos / 1e9;
+        final long flowFiles = (long) inputs.size() * benchIterations;
+        final long bytes = inputBytes * benchIterations;
+        final double flowFilesPerSecond = seconds == 0 ? 0 : flowFiles / seconds;
+        final double megabytesPerSecond = seconds == 0 ? 0 : bytes / (1024.0 * 1024.0) / seconds;
+
+        final StringBuilder message = new StringBuilder("Benchmark\n");
+        message.append(DASHED_LINE);
+        message.append(String.format("\nIterations:  %1$d warm-up, %2$d measured, %3$d trigger(s) each", benchWarmUpIterations, benchIterations, triggersPerIteration));
+        message.append(String.format("\nThroughput:  %1$.1f flow files/sec, %2$.2f MB/sec (%3$d flow files, %4$d bytes in %5$.3f sec)",
+                flowFilesPerSecond, megabytesPerSecond, flowFiles, bytes, seconds));
+        message.append(String.format("\nLatency (ms): p50 %1$.3f, p90 %2$.3f, p99 %3$.3f, max %4$.3f, mean %5$.3f",
+                histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6, histogram.getPercentile(99) / 1e6,
+                histogram.getMax() / 1e6, histogram.getMean() / 1e6));
+        message.append(String.format("\nFailures:    %1$d failed, %2$d rolled back", failures, rollbacks));
+        if (firstFailure != null) {
+            message.append("\nFirst failure: ").append(firstFailure);
+        }
+        message.append("\n").append(DASHED_LINE).append("\n");
+        console().println(message.toString());
+
+        if (!benchOutput.isEmpty()) {
+            final String result = String.format(Locale.ROOT, "{\"timestamp\":%1$d,\"script\":\"%2$s\",\"engine\":\"%3$s\",\"threads\":%4$d,"
+                            + "\"warmUpIterations\":%5$d,\"iterations\":%6$d,\"flowFiles\":%7$d,\"bytes\":%8$d,\"seconds\":%9$.6f,"
+                            + "\"flowFilesPerSecond\":%10$.3f,\"megabytesPerSecond\":%11$.3f,\"triggers\":%12$d,"
+                            + "\"p50Nanos\":%13$d,\"p90Nanos\":%14$d,\"p99Nanos\":%15$d,\"maxNanos\":%16$d,\"meanNanos\":%17$.1f,"
+                            + "\"failures\":%18$d,\"rollbacks\":%19$d}%n",
+                    System.currentTimeMillis(), scriptPath.replace("\\", "\\\\").replace("\"", "\\\""), scriptEngineName, Math.max(threads, 1),
+                    benchWarmUpIterations, benchIterations, flowFiles, bytes, seconds, flowFilesPerSecond, megabytesPerSecond, histogram.getCount(),
+                    histogram.getPercentile(50), histogram.getPercentile(90), histogram.getPercentile(99), histogram.getMax(), histogram.getMean(),
+                    failures, rollbacks);
+            Files.write(Paths.get(benchOutput), result.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        return failures;
+    }
+
+    private static void outputThreadStatistics(List<InstrumentedExecuteScript.ThreadStatistics> threadStatistics, long executionNanos) {
+        threadStatistics.sort(Comparator.comparing(InstrumentedExecuteScript.ThreadStatistics::getThreadName));
+        final StringBuilder message = new StringBuilder("Thread statistics\n");
+        message.append(DASHED_LINE);
+        message.append(String.format("\n%1$-24s %2$9s %3$8s %4$9s %5$8s %6$9s", "Thread", "Triggers", "Commits", "Rollbacks", "Failures", "Avg (ms)"));
+        long triggers = 0;
+        long failures = 0;
+        for (InstrumentedExecuteScript.ThreadStatistics statistics : threadStatistics) {
+            message.append(String.format("\n%1$-24s %2$9d %3$8d %4$9d %5$8d %6$9.3f", statistics.getThreadName(), statistics.getTriggers(),
+                    statistics.getCommits(), statistics.getRollbacks(), statistics.getFailures(),
+                    statistics.getTriggers() == 0 ? 0.0 : statistics.getNanos() / 1e6 / statistics.getTriggers()));
+            triggers += statistics.getTriggers();
+            failures += statistics.getFailures();
+        }
+        message.append("\n").append(DASHED_LINE);
+        message.append(String.format("\n%1$d trigger(s) on %2$d thread(s) in %3$.1f ms: %4$.1f triggers/sec, %5$d failure(s)",
+                triggers, threadStatistics.size(), executionNanos / 1e6, executionNanos == 0 ? 0.0 : triggers * 1e9 / executionNanos, failures));
+        for (InstrumentedExecuteScript.ThreadStatistics statistics : threadStatistics) {
+            if (statistics.getFirstFailure() != null) {
+                message.append("\nFirst failure on ").append(statistics.getThreadName()).append(": ").append(statistics.getFirstFailure());
+            }
+        }
+        message.append("\n");
+        console().println(message.toString());
+    }
+
+    private static void outputTriggerMetrics(TriggerMetrics metrics) {
+        final StringBuilder message = new StringBuilder("Trigger metrics\n");
+        message.append(DASHED_LINE);
+        message.append(String.format("\n%1$-20s %2$9s %3$10s %4$10s %5$10s %6$10s", "Phase", "Count", "Mean (ms)", "p50 (ms)", "p99 (ms)", "Max (ms)"));
+        for (TriggerMetrics.Phase phase : TriggerMetrics.Phase.values()) {
+            final LatencyHistogram histogram = metrics.getPhase(phase);
+            message.append(String.format("\n%1$-20s %2$9d %3$10.3f %4$10.3f %5$10.3f %6$10.3f", phase.getDisplayName(), histogram.getCount(),
+                    histogram.getMean() / 1e6, histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        message.append("\n").append(DASHED_LINE);
+        message.append(String.format("\n%1$d trigger(s): %2$d succeeded, %3$d failed, %4$d rolled back, %5$d skipped\n",
+                metrics.getTriggers(), metrics.getSuccesses(), metrics.getFailures(), metrics.getRollbacks(), metrics.getSkips()));
+        console().println(message.toString());
+    }
+
+    /**
+     * Outputs the lines of the script with the most samples, and writes the sampled stacks for flame graph tools
+     */
+    private static void outputProfile(ScriptProfiler profiler) {
+        List<String> scriptLines;
+        try {
+            scriptLines = Files.readAllLines(Paths.get(scriptPath), StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            scriptLines = new ArrayList<>();
+        }
+        final long samples = profiler.getSamples();
+        final String scriptFileName = new File(scriptPath).getName();
+        final StringBuilder message = new StringBuilder(String.format("Profile (%1$d samples, every %2$d ms)\n", samples, PROFILE_INTERVAL_MILLIS));
+        message.append(DASHED_LINE);
+        message.append(String.format("\n%1$6s %2$6s  %3$s", "Self", "Total", "Line"));
+        final List<ScriptProfiler.LineSamples> hotLines = profiler.getHotLines();
+        for (ScriptProfiler.LineSamples line : hotLines.subList(0, Math.min(MAX_PROFILE_LINES, hotLines.size()))) {
+            final String source = line.getLine() <= scriptLines.size() ? scriptLines.get(line.getLine() - 1).trim() : "";
+            message.append(String.format("\n%1$5.1f%% %2$5.1f%%  %3$s:%4$-5d %5$s", 100.0 * line.getSelfSamples() / samples,
+                    100.0 * line.getTotalSamples() / samples, scriptFileName, line.getLine(), source));
+        }
+        message.append("\n").append(DASHED_LINE);
+        message.append(String.format("\n%1$.1f%% of samples were outside the script (in the engine, session or processor)",
+                samples == 0 ? 0.0 : 100.0 * (samples - profiler.getScriptSamples()) / samples));
+        final Path collapsedStacks = Paths.get(profileOutput.isEmpty() ? scriptFileName + ".collapsed" : profileOutput);
+        try {
+            profiler.writeCollapsedStacks(collapsedStacks);
+            message.append("\nSampled stacks written to ").append(collapsedStacks);
+        } catch (IOException ioe) {
+            message.append("\nCould not write the sampled stacks to ").append(collapsedStacks).append(": ").append(ioe.getLocalizedMessage());
+        }
+        message.append("\n");
+        console().println(message.toString());
+    }
+
+    private static void outputMemoryMetrics(MemoryMetrics metrics) {
+        final StringBuilder message = new StringBuilder("Memory\n");
+        message.append(DASHED_LINE);
+        if (metrics.isAllocationSupported()) {
+            final LatencyHistogram allocations = metrics.getTriggerAllocations();
+            final long flowFiles = metrics.getInputFlowFiles();
+            final long inputBytes = metrics.getInputBytes();
+            message.append(String.format("\n%1$-26s %2$s", "Allocated in triggers", formatBytes(metrics.getAllocatedBytes())));
+            message.append(String.format("\n%1$-26s mean %2$s, p50 %3$s, p99 %4$s, max %5$s (%6$d trigger(s))", "Allocated per trigger",
+                    formatBytes((long) allocations.getMean()), formatBytes(allocations.getPercentile(50)), formatBytes(allocations.getPercentile(99)),
+                    formatBytes(allocations.getMax()), allocations.getCount()));
+            message.append(String.format("\n%1$-26s %2$s (%3$d flow file(s))", "Allocated per flow file",
+                    flowFiles == 0 ? "-" : formatBytes(metrics.getAllocatedBytes() / flowFiles), flowFiles));
+            message.append(String.format("\n%1$-26s %2$s (%3$d input byte(s))", "Allocated per input byte",
+                    inputBytes == 0 ? "-" : String.format("%.1f bytes", (double) metrics.getAllocatedBytes() / inputBytes), inputBytes));
+        } else {
+            message.append(String.format("\n%1$-26s %2$s", "Allocated in triggers", "not measurable on this JVM"));
+        }
+        message.append(String.format("\n%1$-26s %2$d collection(s), %3$d ms", "Garbage collection", metrics.getGcCount(), metrics.getGcMillis()));
+        message.append(String.format("\n%1$-26s %2$s", "Peak heap", formatBytes(metrics.getPeakHeapBytes())));
+        if (metrics.getPeakMetaspaceBytes() >= 0) {
+            message.append(String.format("\n%1$-26s %2$s", "Peak metaspace", formatBytes(metrics.getPeakMetaspaceBytes())));
+        }
+        message.append("\n").append(DASHED_LINE).append("\n");
+        console().println(message.toString());
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " bytes";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static long recordTiming(Map<String, Long> timings, String phase, long phaseStart) {
+        final long now = System.nanoTime();
+        timings.put(phase, now - phaseStart);
+        return now;
+    }
+
+    private static void outputTimings(Map<String, Long> timings) {
+        final StringBuilder message = new StringBuilder("Timing (ms)\n");
+        message.append(DASHED_LINE);
+        long totalNanos = 0;
+        for (Map.Entry<String, Long> timing : timings.entrySet()) {
+            message.append(String.format("\n%1$-26s %2$10.1f", timing.getKey(), timing.getValue() / 1e6));
+            totalNanos += timing.getValue();
+        }
+        message.append("\n").append(DASHED_LINE);
+        message.append(String.format("\n%1$-26s %2$10.1f\n", "Total", totalNanos / 1e6));
+        console().println(message.toString());
+    }
+
     private static void outputFlowFilesForRelationship(Relationship relationship) {
 
         List<MockFlowFile> files = runner.getFlowFilesForRelationship(relationship);
-        if (files != null) {
+        if (files != null && (resultWriter != null || ndjsonWriter != null)) {
+            for (MockFlowFile flowFile : files) {
+                if (resultWriter != null) {
+                    resultWriter.write(flowFile, relationship);
+                }
+                if (ndjsonWriter != null) {
+                    try {
+                        ndjsonWriter.write(flowFile, relationship.getName(), triggerTimings.getTriggerNanos(flowFile));
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace();
+                    }
+                }
+            }
+            if (ndjsonWriter != null) {
+                try {
+                    ndjsonWriter.flush();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+            console().println("Flow Files transferred to " + relationship.getName() + ": " + files.size()
+                    + (resultWriter == null ? "" : " (writing to " + resultWriter.getDirectory().resolve(relationship.getName()) + ")") + "\n");
+        } else if (files != null) {
             for (MockFlowFile flowFile : files) {
                 if (outputAttributes) {
                     final StringBuilder message = new StringBuilder();
@@ -235,7 +1341,7 @@ public class ScriptRunner {
                     message.append("\nFlowFile Attributes");
                     message.append(String.format("\nKey: '%1$s'\n\tValue: '%2$s'", "entryDate", new Date(flowFile.getEntryDate())));
                     message.append(String.format("\nKey: '%1$s'\n\tValue: '%2$s'", "lineageStartDate", new Date(flowFile.getLineageStartDate())));
-                    message.append(String.format("\nKey: '%1$s'\n\tValue: '%2$s'", "fileSize", flowFile.getSize()));
+                    message.append(String.format("\nKey: '%1$s'\n\tValue: '%2$s'", "fileSize", contentStore == null ? flowFile.getSize() : contentStore.getSize(flowFile)));
                     message.append("\nFlowFile Attribute Map Content");
                     for (final String key : flowFile.getAttributes().keySet()) {
                         message.append(String.format("\nKey: '%1$s'\n\tValue: '%2$s'", key, flowFile.getAttribute(key)));
@@ -245,7 +1351,18 @@ public class ScriptRunner {
                     System.out.println(message.toString());
                 }
                 if (outputContent) {
-                    System.out.println(new String(flowFile.toByteArray()));
+                    final Path contentFile = contentStore == null ? null : contentStore.getContent(flowFile);
+                    if (contentFile == null) {
+                        System.out.println(new String(flowFile.toByteArray()));
+                    } else {
+                        // Stream the content rather than reading it into memory
+                        try {
+                            Files.copy(contentFile, System.out);
+                        } catch (IOException ioe) {
+                            ioe.printStackTrace();
+                        }
+                        System.out.println();
+                    }
                 }
                 System.out.println("");
             }
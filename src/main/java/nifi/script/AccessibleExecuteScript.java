@@ -16,9 +16,82 @@
  */
 package nifi.script;
 
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.util.function.UnaryOperator;
+
 public class AccessibleExecuteScript extends ExecuteScript implements AccessibleScriptingComponentHelper {
+
+    private volatile UnaryOperator<ProcessSession> sessionDecorator;
+    private volatile ScriptProfiler profiler;
+    private volatile MemoryMetrics memoryMetrics;
+
     @Override
     public ScriptingComponentHelper getScriptingComponentHelper() {
         return this.scriptingComponentHelper;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void onTrigger(ProcessContext context, ProcessSessionFactory sessionFactory) throws ProcessException {
+        final UnaryOperator<ProcessSession> decorator = sessionDecorator;
+        final ScriptProfiler triggerProfiler = profiler;
+        final MemoryMetrics triggerMemoryMetrics = memoryMetrics;
+        final long startAllocatedBytes = triggerMemoryMetrics == null ? -1 : triggerMemoryMetrics.triggerStarted();
+        if (triggerProfiler != null) {
+            triggerProfiler.enter();
+        }
+        try {
+            if (decorator == null) {
+                super.onTrigger(context, sessionFactory);
+            } else {
+                super.onTrigger(context, () -> decorator.apply(sessionFactory.createSession()));
+            }
+        } finally {
+            if (triggerProfiler != null) {
+                triggerProfiler.exit();
+            }
+            if (triggerMemoryMetrics != null) {
+                triggerMemoryMetrics.triggerFinished(startAllocatedBytes);
+            }
+        }
+    }
+
+    /**
+     * Sets a function applied to each session given to the script, such as {@link FileContentStore#wrap}
+     *
+     * @param sessionDecorator the function, or null to give the script the sessions as they are
+     */
+    public void setSessionDecorator(UnaryOperator<ProcessSession> sessionDecorator) {
+        this.sessionDecorator = sessionDecorator;
+    }
+
+    /**
+     * Sets where to record the time spent in each phase of each trigger
+     *
+     * @param triggerMetrics the metrics, or null to stop recording them
+     */
+    public void setTriggerMetrics(TriggerMetrics triggerMetrics) {
+        this.triggerMetrics = triggerMetrics;
+    }
+
+    /**
+     * Sets a profiler to sample the stacks of the threads running triggers
+     *
+     * @param profiler the profiler, or null to stop profiling
+     */
+    public void setProfiler(ScriptProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Sets where to record the bytes allocated by each trigger
+     *
+     * @param memoryMetrics the metrics, or null to stop recording allocations
+     */
+    public void setMemoryMetrics(MemoryMetrics memoryMetrics) {
+        this.memoryMetrics = memoryMetrics;
+    }
+}
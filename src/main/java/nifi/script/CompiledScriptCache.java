@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An on-disk cache of compiled script class files, so that repeated runs of an unchanged script can skip
+ * compilation entirely. Each entry is a directory named by its key, holding one file per compiled class. Keys
+ * are computed by the configurators from everything that affects the compiled output (script body, default
+ * imports, engine version, e.g.); the module paths and resolved module classpath are always included.
+ */
+public class CompiledScriptCache {
+
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    private final Path directory;
+    private final String classpath;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param directory       the directory in which to store compiled classes; it is created if it doesn't exist
+     * @param modulePaths     the module paths configured for the script
+     * @param moduleClasspath the module classpath resolved from the module paths
+     */
+    public CompiledScriptCache(Path directory, String[] modulePaths, URL[] moduleClasspath) {
+        this.directory = directory;
+        this.classpath = Arrays.toString(modulePaths) + Arrays.toString(moduleClasspath);
+    }
+
+    /**
+     * Computes the cache key for a compiled script.
+     *
+     * @param parts the strings that identify the compiled form of a script
+     * @return a key identifying the compiled script
+     */
+    public String key(String... parts) {
+        String[] keyParts = Arrays.copyOf(parts, parts.length + 1);
+        keyParts[parts.length] = classpath;
+        return ScriptingComponentUtils.sha256(keyParts);
+    }
+
+    /**
+     * Loads the compiled classes stored under the given key.
+     *
+     * @param key the key of the compiled script
+     * @return a map from class name to class bytes, or null if nothing is stored under the key
+     * @throws IOException if the stored classes cannot be read
+     */
+    public Map<String, byte[]> load(String key) throws IOException {
+        Path entry = directory.resolve(key);
+        if (!Files.isDirectory(entry)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        try (DirectoryStream<Path> classFiles = Files.newDirectoryStream(entry, "*" + CLASS_FILE_EXTENSION)) {
+            for (Path classFile : classFiles) {
+                String fileName = classFile.getFileName().toString();
+                classes.put(fileName.substring(0, fileName.length() - CLASS_FILE_EXTENSION.length()), Files.readAllBytes(classFile));
+            }
+        }
+        if (classes.isEmpty()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return classes;
+    }
+
+    /**
+     * @return the number of loads that found compiled classes
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of loads that found nothing stored, so the script had to be compiled
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Stores compiled classes under the given key. The classes are written to a temporary directory which is then
+     * moved into place, so concurrent runs never see a partially written entry.
+     *
+     * @param key     the key of the compiled script
+     * @param classes a map from class name to class bytes
+     * @throws IOException if the classes cannot be written
+     */
+    public void store(String key, Map<String, byte[]> classes) throws IOException {
+        Files.createDirectories(directory);
+        Path entry = directory.resolve(key);
+        if (Files.isDirectory(entry)) {
+            return;
+        }
+        Path tempEntry = Files.createTempDirectory(directory, key + ".tmp");
+        try {
+            for (Map.Entry<String, byte[]> compiledClass : classes.entrySet()) {
+                Files.write(tempEntry.resolve(compiledClass.getKey() + CLASS_FILE_EXTENSION), compiledClass.getValue());
+            }
+            Files.move(tempEntry, entry, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            // If another run stored the same script first, that is just as good
+            if (!Files.isDirectory(entry)) {
+                throw ioe;
+            }
+        } finally {
+            if (Files.exists(tempEntry)) {
+                try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(tempEntry)) {
+                    for (Path tempFile : tempFiles) {
+                        Files.deleteIfExists(tempFile);
+                    }
+                }
+                Files.deleteIfExists(tempEntry);
+            }
+        }
+    }
+}
@@ -27,6 +27,8 @@ import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.ValidationContext;
 import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.components.state.Scope;
+import org.apache.nifi.controller.queue.QueueSize;
+import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.logging.ComponentLog;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
@@ -41,18 +43,22 @@ import org.apache.nifi.processor.util.StandardValidators;
 
 import java.nio.charset.Charset;
 import javax.script.Bindings;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
-import javax.script.SimpleBindings;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.Proxy;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 @Tags({"script", "execute", "groovy", "python", "jython", "jruby", "ruby", "javascript", "js", "lua", "luaj", "clojure", "restricted"})
 @CapabilityDescription("Experimental - Executes a script given the flow file and a process session.  The script is responsible for "
@@ -74,8 +80,36 @@ public class ExecuteScript extends AbstractSessionFactoryProcessor {
     public static final Relationship REL_SUCCESS = ScriptingComponentUtils.REL_SUCCESS;
     public static final Relationship REL_FAILURE = ScriptingComponentUtils.REL_FAILURE;
 
+    // A session with no flow files, used to warm up the script engines. Methods returning a flow file or a value
+    // return null, and get(int) returns an empty list
+    private static final ProcessSession WARM_UP_SESSION = (ProcessSession) Proxy.newProxyInstance(
+            ProcessSession.class.getClassLoader(), new Class<?>[]{ProcessSession.class}, (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            return "warm-up session";
+                    }
+                }
+                if (method.getReturnType() == List.class) {
+                    return Collections.emptyList();
+                }
+                if (method.getReturnType() == QueueSize.class) {
+                    return new QueueSize(0, 0L);
+                }
+                return null;
+            });
+
     private String scriptToRun = null;
+
+    // The time (in nanoseconds) spent in each phase of the last setup, in the order the phases ran
+    private volatile Map<String, Long> setupTimings = Collections.emptyMap();
     volatile ScriptingComponentHelper scriptingComponentHelper = new ScriptingComponentHelper();
+    // Where the phases of each trigger are timed, or null to not time them
+    volatile TriggerMetrics triggerMetrics = null;
 
 
     /**
@@ -139,11 +173,17 @@ public class ExecuteScript extends AbstractSessionFactoryProcessor {
      */
     @OnScheduled
     public void setup(final ProcessContext context) {
+        final Map<String, Long> timings = new LinkedHashMap<>();
+        long phaseStart = System.nanoTime();
         scriptingComponentHelper.setupVariables(context);
 
+        // None of the variables other than the session change between triggers, so they are bound once per engine
+        scriptingComponentHelper.setStaticBindings(createStaticBindings(context));
+
         // Create a script engine for each possible task
         int maxTasks = context.getMaxConcurrentTasks();
         scriptingComponentHelper.setup(maxTasks, getLogger());
+        phaseStart = recordTiming(timings, "Engine creation", phaseStart);
         scriptToRun = scriptingComponentHelper.getScriptBody();
 
         try {
@@ -155,6 +195,87 @@ public class ExecuteScript extends AbstractSessionFactoryProcessor {
         } catch (IOException ioe) {
             throw new ProcessException(ioe);
         }
+
+        // Compile the script once per engine rather than on every trigger
+        scriptingComponentHelper.compileScripts(scriptToRun, getLogger());
+        scriptingComponentHelper.startWatchingScriptFile(getLogger());
+        phaseStart = recordTiming(timings, "Script compilation", phaseStart);
+
+        int warmUpIterations = scriptingComponentHelper.getWarmUpIterations();
+        if (warmUpIterations > 0) {
+            warmUp(warmUpIterations);
+            recordTiming(timings, "Warm-up", phaseStart);
+        }
+        setupTimings = Collections.unmodifiableMap(timings);
+    }
+
+    private static long recordTiming(Map<String, Long> timings, String phase, long phaseStart) {
+        final long now = System.nanoTime();
+        timings.put(phase, now - phaseStart);
+        return now;
+    }
+
+    /**
+     * @return the time (in nanoseconds) spent in each phase of the last setup (engine creation, script compilation,
+     * and warm-up if enabled), in the order the phases ran
+     */
+    public Map<String, Long> getSetupTimings() {
+        return setupTimings;
+    }
+
+    /**
+     * Evaluates the compiled script the given number of times on each engine, against a session with no flow
+     * files, so that the JIT has compiled the hot paths before real flow files arrive. Warm-up stops for an engine
+     * at the first error, as the script likely requires a flow file to be present.
+     *
+     * @param iterations the number of times to evaluate the script on each engine
+     */
+    private void warmUp(final int iterations) {
+        ComponentLog log = getLogger();
+        for (ScriptEngine scriptEngine : scriptingComponentHelper.enginePool.getIdleEngines()) {
+            CompiledScript compiledScript = scriptingComponentHelper.getCompiledScript(scriptEngine, log);
+            if (compiledScript == null) {
+                continue;
+            }
+            Bindings bindings = scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE);
+            bindings.put("session", WARM_UP_SESSION);
+            if (scriptingComponentHelper.getBatchSize() > 0) {
+                bindings.put("flowFiles", Collections.emptyList());
+            }
+            try {
+                for (int i = 0; i < iterations; i++) {
+                    compiledScript.eval(bindings);
+                }
+            } catch (Exception e) {
+                log.debug("Stopped warming up script engine due to {}", new Object[]{e});
+            }
+        }
+    }
+
+    /**
+     * Creates the variables available to the script that do not change between triggers: the context, log,
+     * relationships, and any dynamic properties
+     *
+     * @param context the context in which the script runs
+     * @return a map from variable name to value
+     */
+    private Map<String, Object> createStaticBindings(final ProcessContext context) {
+        Map<String, Object> staticBindings = new HashMap<>();
+        staticBindings.put("context", context);
+        staticBindings.put("log", getLogger());
+        staticBindings.put("REL_SUCCESS", REL_SUCCESS);
+        staticBindings.put("REL_FAILURE", REL_FAILURE);
+
+        // Find the user-added properties and set them on the script
+        for (Map.Entry<PropertyDescriptor, String> property : context.getProperties().entrySet()) {
+            if (property.getKey().isDynamic()) {
+                // Add the dynamic property bound to its full PropertyValue to the script engine
+                if (property.getValue() != null) {
+                    staticBindings.put(property.getKey().getName(), context.getProperty(property.getKey()));
+                }
+            }
+        }
+        return staticBindings;
     }
 
     /**
@@ -175,68 +296,108 @@ public class ExecuteScript extends AbstractSessionFactoryProcessor {
                 scriptingComponentHelper.createResources();
             }
         }
-        ScriptEngine scriptEngine = scriptingComponentHelper.engineQ.poll();
+        final TriggerMetrics metrics = triggerMetrics;
+        long phaseStart = 0;
+        if (metrics != null) {
+            metrics.recordTrigger();
+            phaseStart = System.nanoTime();
+        }
+        ScriptEngine scriptEngine;
+        try {
+            scriptEngine = scriptingComponentHelper.enginePool.acquire(
+                    scriptingComponentHelper.getEngineAcquisitionTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (ScriptException se) {
+            if (metrics != null) {
+                metrics.recordFailure();
+            }
+            throw new ProcessException("Unable to create a script engine", se);
+        }
+        if (metrics != null) {
+            phaseStart = metrics.record(TriggerMetrics.Phase.ENGINE_ACQUISITION, phaseStart);
+        }
         ComponentLog log = getLogger();
         if (scriptEngine == null) {
             // No engine available so nothing more to do here
+            if (metrics != null) {
+                metrics.recordSkip();
+            }
             return;
         }
         ProcessSession session = sessionFactory.createSession();
         try {
 
             try {
+                // The other variables were bound when the engine was created, so only the session changes
                 Bindings bindings = scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE);
-                if (bindings == null) {
-                    bindings = new SimpleBindings();
-                }
                 bindings.put("session", session);
-                bindings.put("context", context);
-                bindings.put("log", log);
-                bindings.put("REL_SUCCESS", REL_SUCCESS);
-                bindings.put("REL_FAILURE", REL_FAILURE);
-
-                // Find the user-added properties and set them on the script
-                for (Map.Entry<PropertyDescriptor, String> property : context.getProperties().entrySet()) {
-                    if (property.getKey().isDynamic()) {
-                        // Add the dynamic property bound to its full PropertyValue to the script engine
-                        if (property.getValue() != null) {
-                            bindings.put(property.getKey().getName(), context.getProperty(property.getKey()));
+
+                // In batch mode, the script is given the batch of flow files, and only evaluated if there are any
+                int batchSize = scriptingComponentHelper.getBatchSize();
+                if (batchSize > 0) {
+                    List<FlowFile> flowFiles = session.get(batchSize);
+                    if (flowFiles.isEmpty()) {
+                        if (metrics != null) {
+                            metrics.recordSkip();
                         }
+                        return;
                     }
+                    bindings.put("flowFiles", flowFiles);
                 }
 
-                scriptEngine.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
-
                 // Execute any engine-specific configuration before the script is evaluated
-                ScriptEngineConfigurator configurator =
-                        scriptingComponentHelper.scriptEngineConfiguratorMap.get(scriptingComponentHelper.getScriptEngineName().toLowerCase());
+                ScriptEngineConfigurator configurator = scriptingComponentHelper.getScriptEngineConfigurator();
 
-                // Evaluate the script with the configurator (if it exists) or the engine
-                if (configurator != null) {
-                    configurator.eval(scriptEngine, scriptToRun, scriptingComponentHelper.getModules());
+                // Evaluate the compiled script (if the engine supports it), otherwise the script body with the
+                // configurator (if it exists) or the engine
+                CompiledScript compiledScript = scriptingComponentHelper.getCompiledScript(scriptEngine, log);
+                if (metrics != null) {
+                    phaseStart = metrics.record(TriggerMetrics.Phase.BINDINGS, phaseStart);
+                }
+                if (compiledScript != null) {
+                    compiledScript.eval(bindings);
+                } else if (configurator != null) {
+                    configurator.eval(scriptEngine, scriptingComponentHelper.getActiveScriptBody(), scriptingComponentHelper.getModules());
                 } else {
-                    scriptEngine.eval(scriptToRun);
+                    scriptEngine.eval(scriptingComponentHelper.getActiveScriptBody());
+                }
+                if (metrics != null) {
+                    phaseStart = metrics.record(TriggerMetrics.Phase.EVALUATION, phaseStart);
                 }
 
                 // Commit this session for the user. This plus the outermost catch statement mimics the behavior
                 // of AbstractProcessor. This class doesn't extend AbstractProcessor in order to share a base
                 // class with InvokeScriptedProcessor
                 session.commit();
+                if (metrics != null) {
+                    metrics.record(TriggerMetrics.Phase.COMMIT, phaseStart);
+                    metrics.recordSuccess();
+                }
             } catch (ScriptException e) {
                 throw new ProcessException(e);
             }
         } catch (final Throwable t) {
             // Mimic AbstractProcessor behavior here
             getLogger().error("{} failed to process due to {}; rolling back session", new Object[]{this, t});
+            if (metrics != null) {
+                metrics.recordFailure();
+                phaseStart = System.nanoTime();
+            }
             session.rollback(true);
+            if (metrics != null) {
+                metrics.record(TriggerMetrics.Phase.ROLLBACK, phaseStart);
+                metrics.recordRollback();
+            }
             throw t;
         } finally {
-            scriptingComponentHelper.engineQ.offer(scriptEngine);
+            scriptingComponentHelper.enginePool.release(scriptEngine);
         }
     }
 
     @OnStopped
     public void stop() {
-        scriptingComponentHelper.stop();
+        if (scriptingComponentHelper.enginePool != null) {
+            getLogger().info("Script engine pool statistics: {}", new Object[]{scriptingComponentHelper.enginePool});
+        }
+        scriptingComponentHelper.stop(getLogger());
     }
 }
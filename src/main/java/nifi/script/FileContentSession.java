@@ -0,0 +1,507 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.nifi.controller.queue.QueueSize;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.FlowFileFilter;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.FlowFileAccessException;
+import org.apache.nifi.processor.io.InputStreamCallback;
+import org.apache.nifi.processor.io.OutputStreamCallback;
+import org.apache.nifi.processor.io.StreamCallback;
+import org.apache.nifi.provenance.ProvenanceReporter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A session whose flow file content is kept in a {@link FileContentStore}. Content is streamed from and to the
+ * store's files, so it is never held on the heap. Writes go to a new file, leaving the previous content (which may
+ * be shared with clones or input files) as it was; the delegate session is given empty content so it still records
+ * the new version of the flow file. Changes to the store are undone if the session is rolled back.
+ */
+class FileContentSession implements ProcessSession {
+
+    private final ProcessSession delegate;
+    private final FileContentStore store;
+
+    // The content of each flow file changed in this session, as it was before the change (null if it wasn't in the store)
+    private final Map<Long, Path> originalContent = new HashMap<>();
+
+    FileContentSession(ProcessSession delegate, FileContentStore store) {
+        this.delegate = delegate;
+        this.store = store;
+    }
+
+    private void setContent(FlowFile flowFile, Path contentFile) {
+        if (!originalContent.containsKey(flowFile.getId())) {
+            originalContent.put(flowFile.getId(), store.getContent(flowFile));
+        }
+        store.setContent(flowFile, contentFile);
+    }
+
+    /**
+     * Gives the delegate session's flow file empty content (so it is recorded as modified), and the store the new content
+     */
+    private FlowFile replaceContent(FlowFile flowFile, Path contentFile) {
+        final FlowFile updated = delegate.write(flowFile, out -> {
+        });
+        setContent(updated, contentFile);
+        return updated;
+    }
+
+    /**
+     * Opens the content of the given flow file, from the store if it is there and otherwise from the delegate session
+     */
+    private InputStream openContent(FlowFile flowFile) throws IOException {
+        final Path contentFile = store.getContent(flowFile);
+        if (contentFile == null) {
+            return delegate.read(flowFile);
+        }
+        return new BufferedInputStream(Files.newInputStream(contentFile));
+    }
+
+    private static OutputStream openContentFile(Path contentFile, boolean append) throws IOException {
+        return new BufferedOutputStream(append
+                ? Files.newOutputStream(contentFile, StandardOpenOption.APPEND)
+                : Files.newOutputStream(contentFile));
+    }
+
+    @Override
+    public void commit() {
+        delegate.commit();
+        originalContent.clear();
+    }
+
+    @Override
+    public void rollback() {
+        delegate.rollback();
+        restoreContent();
+    }
+
+    @Override
+    public void rollback(boolean penalize) {
+        delegate.rollback(penalize);
+        restoreContent();
+    }
+
+    private void restoreContent() {
+        for (Map.Entry<Long, Path> entry : originalContent.entrySet()) {
+            store.setContent(entry.getKey(), entry.getValue());
+        }
+        originalContent.clear();
+    }
+
+    @Override
+    public void migrate(ProcessSession newOwner, Collection<FlowFile> flowFiles) {
+        delegate.migrate(newOwner, flowFiles);
+    }
+
+    @Override
+    public void adjustCounter(String name, long delta, boolean immediate) {
+        delegate.adjustCounter(name, delta, immediate);
+    }
+
+    @Override
+    public FlowFile get() {
+        return delegate.get();
+    }
+
+    @Override
+    public List<FlowFile> get(int maxResults) {
+        return delegate.get(maxResults);
+    }
+
+    @Override
+    public List<FlowFile> get(FlowFileFilter filter) {
+        return delegate.get(filter);
+    }
+
+    @Override
+    public QueueSize getQueueSize() {
+        return delegate.getQueueSize();
+    }
+
+    @Override
+    public FlowFile create() {
+        return delegate.create();
+    }
+
+    @Override
+    public FlowFile create(FlowFile parent) {
+        return delegate.create(parent);
+    }
+
+    @Override
+    public FlowFile create(Collection<FlowFile> parents) {
+        return delegate.create(parents);
+    }
+
+    @Override
+    public FlowFile clone(FlowFile example) {
+        final FlowFile clone = delegate.clone(example);
+        final Path contentFile = store.getContent(example);
+        if (contentFile != null) {
+            // Content files are never modified, so the clone can share it
+            setContent(clone, contentFile);
+        }
+        return clone;
+    }
+
+    @Override
+    public FlowFile clone(FlowFile parent, long offset, long size) {
+        final Path contentFile = store.getContent(parent);
+        if (contentFile == null) {
+            return delegate.clone(parent, offset, size);
+        }
+        final FlowFile clone = delegate.clone(parent);
+        try (FileChannel source = FileChannel.open(contentFile, StandardOpenOption.READ)) {
+            if (offset + size > source.size()) {
+                throw new FlowFileAccessException("Cannot clone " + parent + " from offset " + offset + " with size " + size
+                        + " as its content is only " + source.size() + " bytes");
+            }
+            final Path cloneContentFile = store.createContentFile();
+            try (FileChannel target = FileChannel.open(cloneContentFile, StandardOpenOption.WRITE)) {
+                long transferred = 0;
+                while (transferred < size) {
+                    transferred += source.transferTo(offset + transferred, size - transferred, target);
+                }
+            }
+            setContent(clone, cloneContentFile);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to clone the content of " + parent, ioe);
+        }
+        return clone;
+    }
+
+    @Override
+    public FlowFile penalize(FlowFile flowFile) {
+        return delegate.penalize(flowFile);
+    }
+
+    @Override
+    public FlowFile putAttribute(FlowFile flowFile, String key, String value) {
+        return delegate.putAttribute(flowFile, key, value);
+    }
+
+    @Override
+    public FlowFile putAllAttributes(FlowFile flowFile, Map<String, String> attributes) {
+        return delegate.putAllAttributes(flowFile, attributes);
+    }
+
+    @Override
+    public FlowFile removeAttribute(FlowFile flowFile, String key) {
+        return delegate.removeAttribute(flowFile, key);
+    }
+
+    @Override
+    public FlowFile removeAllAttributes(FlowFile flowFile, Set<String> keys) {
+        return delegate.removeAllAttributes(flowFile, keys);
+    }
+
+    @Override
+    public FlowFile removeAllAttributes(FlowFile flowFile, Pattern keyPattern) {
+        return delegate.removeAllAttributes(flowFile, keyPattern);
+    }
+
+    @Override
+    public void transfer(FlowFile flowFile, Relationship relationship) {
+        delegate.transfer(flowFile, relationship);
+    }
+
+    @Override
+    public void transfer(FlowFile flowFile) {
+        delegate.transfer(flowFile);
+    }
+
+    @Override
+    public void transfer(Collection<FlowFile> flowFiles) {
+        delegate.transfer(flowFiles);
+    }
+
+    @Override
+    public void transfer(Collection<FlowFile> flowFiles, Relationship relationship) {
+        delegate.transfer(flowFiles, relationship);
+    }
+
+    @Override
+    public void remove(FlowFile flowFile) {
+        delegate.remove(flowFile);
+        setContent(flowFile, null);
+    }
+
+    @Override
+    public void remove(Collection<FlowFile> flowFiles) {
+        delegate.remove(flowFiles);
+        for (FlowFile flowFile : flowFiles) {
+            setContent(flowFile, null);
+        }
+    }
+
+    @Override
+    public void read(FlowFile source, InputStreamCallback reader) throws FlowFileAccessException {
+        read(source, false, reader);
+    }
+
+    @Override
+    public InputStream read(FlowFile flowFile) {
+        try {
+            return openContent(flowFile);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to read the content of " + flowFile, ioe);
+        }
+    }
+
+    @Override
+    public void read(FlowFile source, boolean allowSessionStreamManagement, InputStreamCallback reader) throws FlowFileAccessException {
+        if (store.getContent(source) == null) {
+            delegate.read(source, allowSessionStreamManagement, reader);
+            return;
+        }
+        try (InputStream in = openContent(source)) {
+            reader.process(in);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to read the content of " + source, ioe);
+        }
+    }
+
+    @Override
+    public FlowFile merge(Collection<FlowFile> sources, FlowFile destination) {
+        return merge(sources, destination, null, null, null);
+    }
+
+    @Override
+    public FlowFile merge(Collection<FlowFile> sources, FlowFile destination, byte[] header, byte[] footer, byte[] demarcator) {
+        if (sources.stream().noneMatch(source -> store.getContent(source) != null)) {
+            return delegate.merge(sources, destination, header, footer, demarcator);
+        }
+        if (sources.contains(destination)) {
+            throw new IllegalArgumentException("Destination cannot be within sources");
+        }
+        try {
+            final Path contentFile = store.createContentFile();
+            try (OutputStream out = openContentFile(contentFile, false)) {
+                if (header != null) {
+                    out.write(header);
+                }
+                boolean first = true;
+                for (FlowFile source : sources) {
+                    if (!first && demarcator != null) {
+                        out.write(demarcator);
+                    }
+                    first = false;
+                    try (InputStream in = openContent(source)) {
+                        copy(in, out);
+                    }
+                }
+                if (footer != null) {
+                    out.write(footer);
+                }
+            }
+            return replaceContent(destination, contentFile);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to merge content into " + destination, ioe);
+        }
+    }
+
+    @Override
+    public FlowFile write(FlowFile source, OutputStreamCallback writer) throws FlowFileAccessException {
+        try {
+            final Path contentFile = store.createContentFile();
+            try (OutputStream out = openContentFile(contentFile, false)) {
+                writer.process(out);
+            }
+            return replaceContent(source, contentFile);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to write the content of " + source, ioe);
+        }
+    }
+
+    @Override
+    public OutputStream write(FlowFile source) {
+        final Path contentFile;
+        try {
+            contentFile = store.createContentFile();
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to write the content of " + source, ioe);
+        }
+        // As with replaceContent, the delegate session is given empty content so it records the new version of the
+        // flow file (and holds the flow file as in use until the stream is closed)
+        final OutputStream delegateOut = delegate.write(source);
+        final OutputStream contentOut;
+        try {
+            contentOut = openContentFile(contentFile, false);
+        } catch (IOException ioe) {
+            try {
+                delegateOut.close();
+            } catch (IOException ignored) {
+                // The failure to open the content file is the one to report
+            }
+            throw new FlowFileAccessException("Unable to write the content of " + source, ioe);
+        }
+        // The flow file's content is replaced when the stream is closed
+        return new FilterOutputStream(contentOut) {
+            private boolean closed = false;
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        delegateOut.close();
+                    }
+                    setContent(source, contentFile);
+                }
+            }
+        };
+    }
+
+    @Override
+    public FlowFile write(FlowFile source, StreamCallback writer) throws FlowFileAccessException {
+        try {
+            final Path contentFile = store.createContentFile();
+            try (InputStream in = openContent(source);
+                 OutputStream out = openContentFile(contentFile, false)) {
+                writer.process(in, out);
+            }
+            return replaceContent(source, contentFile);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to write the content of " + source, ioe);
+        }
+    }
+
+    @Override
+    public FlowFile append(FlowFile source, OutputStreamCallback writer) throws FlowFileAccessException {
+        try {
+            // Copy the existing content rather than appending to it, as the file may be shared
+            final Path contentFile = store.createContentFile(openContent(source));
+            try (OutputStream out = openContentFile(contentFile, true)) {
+                writer.process(out);
+            }
+            return replaceContent(source, contentFile);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to append to the content of " + source, ioe);
+        }
+    }
+
+    @Override
+    public FlowFile importFrom(Path source, boolean keepSourceFile, FlowFile destination) {
+        try {
+            final Path contentFile = store.createContentFile();
+            if (keepSourceFile) {
+                Files.copy(source, contentFile, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.move(source, contentFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return replaceContent(destination, contentFile);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to import " + source + " into " + destination, ioe);
+        }
+    }
+
+    @Override
+    public FlowFile importFrom(InputStream source, FlowFile destination) {
+        try {
+            final Path contentFile = store.createContentFile();
+            try (OutputStream out = openContentFile(contentFile, false)) {
+                copy(source, out);
+            }
+            return replaceContent(destination, contentFile);
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to import content into " + destination, ioe);
+        }
+    }
+
+    @Override
+    public void exportTo(FlowFile flowFile, Path destination, boolean append) {
+        final Path contentFile = store.getContent(flowFile);
+        if (contentFile == null) {
+            delegate.exportTo(flowFile, destination, append);
+            return;
+        }
+        try (FileChannel source = FileChannel.open(contentFile, StandardOpenOption.READ);
+             FileChannel target = append
+                     ? FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+                     : FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long transferred = 0;
+            final long size = source.size();
+            while (transferred < size) {
+                transferred += source.transferTo(transferred, size - transferred, target);
+            }
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to export " + flowFile + " to " + destination, ioe);
+        }
+    }
+
+    @Override
+    public void exportTo(FlowFile flowFile, OutputStream destination) {
+        final Path contentFile = store.getContent(flowFile);
+        if (contentFile == null) {
+            delegate.exportTo(flowFile, destination);
+            return;
+        }
+        try (FileChannel source = FileChannel.open(contentFile, StandardOpenOption.READ)) {
+            final WritableByteChannel target = Channels.newChannel(destination);
+            long transferred = 0;
+            final long size = source.size();
+            while (transferred < size) {
+                transferred += source.transferTo(transferred, size - transferred, target);
+            }
+        } catch (IOException ioe) {
+            throw new FlowFileAccessException("Unable to export " + flowFile, ioe);
+        }
+    }
+
+    @Override
+    public ProvenanceReporter getProvenanceReporter() {
+        return delegate.getProvenanceReporter();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps flow file content in files rather than on the heap, so scripts can be run against content larger than the
+ * heap. The flow files themselves (in the mock framework) have empty content; the store maps each flow file (by id)
+ * to the file holding its content. Content files are never modified once written, so clones can share them. Sessions
+ * wrapped with {@link #wrap(ProcessSession)} read and write content through the store.
+ * <p>
+ * Files created by the store are deleted when the store is cleared or closed. Files added with
+ * {@link #setContent(FlowFile, Path)} (such as input files) are only read, never modified or deleted.
+ * <p>
+ * Because the flow files' own content is empty, {@link FlowFile#getSize()} returns 0 for flow files whose content
+ * is in the store. Use {@link #getSize(FlowFile)} instead.
+ */
+public class FileContentStore implements Closeable {
+
+    private final Path directory;
+    private final boolean deleteDirectory;
+    private final Map<Long, Path> contentFiles = new ConcurrentHashMap<>();
+    private final Set<Path> createdFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param directory the directory in which to create content files, or null to use a new temporary directory
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public FileContentStore(Path directory) throws IOException {
+        if (directory == null) {
+            this.directory = Files.createTempDirectory("nifi-script-content");
+            this.deleteDirectory = true;
+        } else {
+            this.directory = Files.createDirectories(directory);
+            this.deleteDirectory = false;
+        }
+    }
+
+    /**
+     * Returns a session that reads and writes flow file content through this store
+     *
+     * @param session the session to wrap
+     * @return a session backed by this store
+     */
+    public ProcessSession wrap(ProcessSession session) {
+        return new FileContentSession(session, this);
+    }
+
+    /**
+     * @return the file holding the content of the given flow file, or null if its content is not in the store
+     */
+    public Path getContent(FlowFile flowFile) {
+        return contentFiles.get(flowFile.getId());
+    }
+
+    /**
+     * Sets the file holding the content of the given flow file. The file must not be modified afterwards.
+     *
+     * @param flowFile    the flow file
+     * @param contentFile the file holding its content, or null to remove the flow file from the store
+     */
+    public void setContent(FlowFile flowFile, Path contentFile) {
+        setContent(flowFile.getId(), contentFile);
+    }
+
+    void setContent(long flowFileId, Path contentFile) {
+        if (contentFile == null) {
+            contentFiles.remove(flowFileId);
+        } else {
+            contentFiles.put(flowFileId, contentFile);
+        }
+    }
+
+    /**
+     * @return the size of the content of the given flow file, from the store if it is there
+     */
+    public long getSize(FlowFile flowFile) {
+        Path contentFile = getContent(flowFile);
+        if (contentFile == null) {
+            return flowFile.getSize();
+        }
+        try {
+            return Files.size(contentFile);
+        } catch (IOException ioe) {
+            return 0;
+        }
+    }
+
+    /**
+     * Creates a new, empty content file, which is deleted when the store is cleared or closed
+     *
+     * @return the path of the new file
+     * @throws IOException if the file cannot be created
+     */
+    public Path createContentFile() throws IOException {
+        Path contentFile = Files.createTempFile(directory, "content", ".bin");
+        createdFiles.add(contentFile);
+        return contentFile;
+    }
+
+    /**
+     * Creates a new content file holding the given content
+     *
+     * @param content the content
+     * @return the path of the new file
+     * @throws IOException if the file cannot be written
+     */
+    public Path createContentFile(InputStream content) throws IOException {
+        Path contentFile = createContentFile();
+        try (InputStream in = content) {
+            Files.copy(in, contentFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return contentFile;
+    }
+
+    /**
+     * Removes all flow files from the store and deletes the content files it created, such as when the flow files
+     * produced by a run have been output
+     */
+    public void clear() {
+        contentFiles.clear();
+        for (Path createdFile : createdFiles) {
+            try {
+                Files.deleteIfExists(createdFile);
+            } catch (IOException ignored) {
+                // Left for the temporary directory to be cleaned up
+            }
+        }
+        createdFiles.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        clear();
+        if (deleteDirectory) {
+            Files.deleteIfExists(directory);
+        }
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+
+/**
+ * A class loader for script modules that indexes the entries of the module JARs up front, so that each class or
+ * resource lookup goes straight to the JAR containing it rather than searching every JAR in turn. The JARs are
+ * scanned in parallel. Optionally the index is persisted in each module directory (as {@value #INDEX_FILE_NAME}),
+ * and JARs whose size and modification time are unchanged are not scanned again on the next startup.
+ * <p>
+ * Anything that is not a JAR file (such as a directory of classes or scripts) is searched by the usual
+ * URLClassLoader lookup. Lookups still follow classpath order: an entry found in a JAR is only used if no URL before
+ * that JAR on the classpath has it as well.
+ */
+public class IndexedModuleClassLoader extends URLClassLoader {
+
+    public static final String INDEX_FILE_NAME = ".module-index";
+
+    private static final int INDEX_VERSION = 1;
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    // Class loaders that were collected without being closed, and the closers that release their JARs. The closers
+    // hold only the JARs, so they don't keep the class loaders reachable
+    private static final ReferenceQueue<IndexedModuleClassLoader> collectedClassLoaders = new ReferenceQueue<>();
+    private static final Set<JarCloser> jarClosers = ConcurrentHashMap.newKeySet();
+
+    private final IndexedJar[] jars;
+
+    // The packages this class loader has defined for classes from the indexed JARs
+    private final Map<String, Boolean> definedPackages = new ConcurrentHashMap<>();
+
+    // Resource names (including class files) to the indexes of the JARs containing them, in classpath order
+    private final Map<String, int[]> index;
+
+    // The classpath positions of the indexed JARs and of the URLs searched by the URLClassLoader lookup
+    private final int[] jarPositions;
+    private final URL[] unindexedURLs;
+    private final int[] unindexedPositions;
+
+    private IndexedModuleClassLoader(TreeMap<Integer, URL> unindexedURLs, ClassLoader parent, IndexedJar[] jars, int[] jarPositions,
+                                     Map<String, int[]> index) {
+        super(unindexedURLs.values().toArray(new URL[unindexedURLs.size()]), parent);
+        this.jars = jars;
+        this.index = index;
+        this.jarPositions = jarPositions;
+        this.unindexedURLs = unindexedURLs.values().toArray(new URL[unindexedURLs.size()]);
+        this.unindexedPositions = unindexedURLs.keySet().stream().mapToInt(Integer::intValue).toArray();
+        jarClosers.add(new JarCloser(this, jars));
+    }
+
+    /**
+     * Creates a class loader for the given module URLs, indexing the entries of any JAR files among them.
+     *
+     * @param urls         the module URLs
+     * @param parent       the parent class loader
+     * @param persistIndex whether to read and write the index in the directories containing the JARs
+     * @return a class loader for the module URLs
+     */
+    public static IndexedModuleClassLoader newInstance(URL[] urls, ClassLoader parent, boolean persistIndex) {
+        closeCollectedJars();
+        TreeMap<Integer, URL> unindexedURLs = new TreeMap<>();
+        List<File> jarFiles = new ArrayList<>();
+        List<Integer> jarFilePositions = new ArrayList<>();
+        for (int position = 0; position < urls.length; position++) {
+            File file = toJarFile(urls[position]);
+            if (file != null) {
+                jarFiles.add(file);
+                jarFilePositions.add(position);
+            } else {
+                unindexedURLs.put(position, urls[position]);
+            }
+        }
+
+        // Reuse the persisted entries of unchanged JARs, grouped by the directory the index is stored in
+        Map<File, Map<String, IndexedJar>> persistedIndexes = new HashMap<>();
+        if (persistIndex) {
+            for (File jarFile : jarFiles) {
+                persistedIndexes.computeIfAbsent(jarFile.getParentFile(), IndexedModuleClassLoader::readIndex);
+            }
+        }
+
+        List<IndexedJar> scannedJars = jarFiles.parallelStream().map(jarFile -> {
+            Map<String, IndexedJar> persisted = persistedIndexes.get(jarFile.getParentFile());
+            IndexedJar indexedJar = persisted == null ? null : persisted.get(jarFile.getName());
+            if (indexedJar != null && indexedJar.length == jarFile.length() && indexedJar.lastModified == jarFile.lastModified()) {
+                return new IndexedJar(jarFile, indexedJar.length, indexedJar.lastModified, indexedJar.entries, false);
+            }
+            return scan(jarFile);
+        }).collect(Collectors.toList());
+
+        List<IndexedJar> indexedJars = new ArrayList<>(scannedJars.size());
+        int[] jarPositions = new int[scannedJars.size()];
+        Map<String, int[]> index = new HashMap<>();
+        for (int i = 0; i < scannedJars.size(); i++) {
+            IndexedJar indexedJar = scannedJars.get(i);
+            if (indexedJar == null) {
+                // The JAR could not be read, so leave it to the URLClassLoader to report or skip
+                unindexedURLs.put(jarFilePositions.get(i), toURL(jarFiles.get(i)));
+                continue;
+            }
+            final int jarIndex = indexedJars.size();
+            indexedJars.add(indexedJar);
+            jarPositions[jarIndex] = jarFilePositions.get(i);
+            for (String entry : indexedJar.entries) {
+                index.merge(entry, new int[]{jarIndex}, IndexedModuleClassLoader::concat);
+            }
+        }
+
+        if (persistIndex) {
+            Map<File, List<IndexedJar>> jarsByDirectory = new LinkedHashMap<>();
+            for (IndexedJar indexedJar : indexedJars) {
+                jarsByDirectory.computeIfAbsent(indexedJar.file.getParentFile(), k -> new ArrayList<>()).add(indexedJar);
+            }
+            // Only rewrite indexes that changed, so unchanged modules don't write to their directories on every startup
+            jarsByDirectory.forEach((directory, directoryJars) -> {
+                if (directoryJars.size() != persistedIndexes.get(directory).size()
+                        || directoryJars.stream().anyMatch(indexedJar -> indexedJar.scanned)) {
+                    writeIndex(directory, directoryJars);
+                }
+            });
+        }
+
+        return new IndexedModuleClassLoader(unindexedURLs, parent, indexedJars.toArray(new IndexedJar[indexedJars.size()]),
+                Arrays.copyOf(jarPositions, indexedJars.size()), index);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        final String resourceName = name.replace('.', '/') + ".class";
+        int[] jarIndexes = index.get(resourceName);
+        if (jarIndexes == null || foundBeforeJar(resourceName, jarIndexes[0])) {
+            return super.findClass(name);
+        }
+        IndexedJar indexedJar = jars[jarIndexes[0]];
+        try {
+            JarFile jarFile = indexedJar.open();
+            JarEntry entry = jarFile.getJarEntry(resourceName);
+            if (entry == null) {
+                return super.findClass(name);
+            }
+            byte[] bytes;
+            try (InputStream in = jarFile.getInputStream(entry)) {
+                bytes = IOUtils.toByteArray(in);
+            }
+            definePackageIfNeeded(name, jarFile, indexedJar.url);
+            return defineClass(name, bytes, 0, bytes.length, new CodeSource(indexedJar.url, entry.getCodeSigners()));
+        } catch (IOException ioe) {
+            throw new ClassNotFoundException(name, ioe);
+        }
+    }
+
+    private void definePackageIfNeeded(String className, JarFile jarFile, URL url) throws IOException {
+        int lastDot = className.lastIndexOf('.');
+        if (lastDot < 0) {
+            return;
+        }
+        String packageName = className.substring(0, lastDot);
+        if (definedPackages.containsKey(packageName)) {
+            return;
+        }
+        Manifest manifest = jarFile.getManifest();
+        definedPackages.computeIfAbsent(packageName, name -> {
+            try {
+                if (manifest != null) {
+                    definePackage(name, manifest, url);
+                } else {
+                    definePackage(name, null, null, null, null, null, null, null);
+                }
+            } catch (IllegalArgumentException iae) {
+                // The URLClassLoader lookup (or on Java 8, a parent) defined the package first
+            }
+            return Boolean.TRUE;
+        });
+    }
+
+    @Override
+    public URL findResource(String name) {
+        int[] jarIndexes = index.get(name);
+        if (jarIndexes == null) {
+            return super.findResource(name);
+        }
+        URL resource = findUnindexedResourceBeforeJar(name, jarIndexes[0]);
+        return resource != null ? resource : jars[jarIndexes[0]].getResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        List<URL> unindexedResources = Collections.list(super.findResources(name));
+        int[] jarIndexes = index.get(name);
+        if (jarIndexes == null) {
+            return Collections.enumeration(unindexedResources);
+        }
+        // Merge the resources from the indexed JARs with the others, in classpath order
+        TreeMap<Integer, URL> resources = new TreeMap<>();
+        for (int jarIndex : jarIndexes) {
+            resources.put(jarPositions[jarIndex], jars[jarIndex].getResource(name));
+        }
+        for (URL resource : unindexedResources) {
+            int position = getUnindexedPosition(resource, name);
+            resources.put(position >= 0 ? position : Integer.MAX_VALUE - resources.size(), resource);
+        }
+        return Collections.enumeration(resources.values());
+    }
+
+    private boolean foundBeforeJar(String name, int jarIndex) {
+        return findUnindexedResourceBeforeJar(name, jarIndex) != null;
+    }
+
+    /**
+     * Looks for the given resource among the URLs that come before the given indexed JAR on the classpath
+     *
+     * @return the resource, or null if none of those URLs has it
+     */
+    private URL findUnindexedResourceBeforeJar(String name, int jarIndex) {
+        if (unindexedPositions.length == 0 || unindexedPositions[0] > jarPositions[jarIndex]) {
+            return null;
+        }
+        URL resource = super.findResource(name);
+        if (resource == null) {
+            return null;
+        }
+        int position = getUnindexedPosition(resource, name);
+        return position >= 0 && position < jarPositions[jarIndex] ? resource : null;
+    }
+
+    /**
+     * @return the classpath position of the URL the given resource was found in, or -1 if it isn't known
+     */
+    private int getUnindexedPosition(URL resource, String name) {
+        String resourceString = resource.toString();
+        for (int i = 0; i < unindexedURLs.length; i++) {
+            String url = unindexedURLs[i].toString();
+            if (resourceString.equals(url + name) || resourceString.equals("jar:" + url + "!/" + name)) {
+                return unindexedPositions[i];
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (IndexedJar indexedJar : jars) {
+            indexedJar.close();
+        }
+        super.close();
+    }
+
+    /**
+     * Closes the JARs of any class loaders that have been collected without being closed, such as those dropped by
+     * {@link ModuleClasspathCache}, rather than leaving their file handles open until the JarFiles are finalized
+     */
+    static void closeCollectedJars() {
+        JarCloser jarCloser;
+        while ((jarCloser = (JarCloser) collectedClassLoaders.poll()) != null) {
+            jarClosers.remove(jarCloser);
+            jarCloser.closeJars();
+        }
+    }
+
+    private static File toJarFile(URL url) {
+        if (!"file".equals(url.getProtocol()) || !url.getPath().endsWith(".jar")) {
+            return null;
+        }
+        try {
+            File file = new File(url.toURI());
+            return file.isFile() ? file : null;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static URL toURL(File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException mue) {
+            throw new IllegalArgumentException(mue);
+        }
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static IndexedJar scan(File file) {
+        try (JarFile jarFile = new JarFile(file)) {
+            List<String> entries = new ArrayList<>();
+            Enumeration<JarEntry> jarEntries = jarFile.entries();
+            while (jarEntries.hasMoreElements()) {
+                JarEntry entry = jarEntries.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.add(entry.getName());
+                }
+            }
+            return new IndexedJar(file, file.length(), file.lastModified(), entries.toArray(new String[entries.size()]), true);
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the persisted index in the given directory
+     *
+     * @return the indexed JARs by file name, or an empty map if there is no readable index
+     */
+    private static Map<String, IndexedJar> readIndex(File directory) {
+        Path indexFile = directory.toPath().resolve(INDEX_FILE_NAME);
+        Map<String, IndexedJar> indexedJars = new HashMap<>();
+        if (!Files.isRegularFile(indexFile)) {
+            return indexedJars;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_VERSION) {
+                return indexedJars;
+            }
+            int jarCount = in.readInt();
+            for (int i = 0; i < jarCount; i++) {
+                String name = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                String[] entries = new String[in.readInt()];
+                for (int j = 0; j < entries.length; j++) {
+                    entries[j] = in.readUTF();
+                }
+                indexedJars.put(name, new IndexedJar(new File(directory, name), length, lastModified, entries, false));
+            }
+        } catch (IOException ioe) {
+            // A missing or corrupt index just means the JARs are scanned
+            indexedJars.clear();
+        }
+        return indexedJars;
+    }
+
+    /**
+     * Writes the index for the given JARs into their directory. The index is written to a temporary file and moved
+     * into place, so concurrent readers never see a partial index. Failure (such as a read-only directory) is ignored.
+     */
+    private static void writeIndex(File directory, List<IndexedJar> indexedJars) {
+        Path indexFile = directory.toPath().resolve(INDEX_FILE_NAME);
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory.toPath(), INDEX_FILE_NAME, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(INDEX_VERSION);
+                out.writeInt(indexedJars.size());
+                for (IndexedJar indexedJar : indexedJars) {
+                    out.writeUTF(indexedJar.file.getName());
+                    out.writeLong(indexedJar.length);
+                    out.writeLong(indexedJar.lastModified);
+                    out.writeInt(indexedJar.entries.length);
+                    for (String entry : indexedJar.entries) {
+                        out.writeUTF(entry);
+                    }
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UnsupportedOperationException e) {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                    // Nothing more can be done
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the JARs of a class loader once it has been collected
+     */
+    private static class JarCloser extends PhantomReference<IndexedModuleClassLoader> {
+        private final IndexedJar[] jars;
+
+        JarCloser(IndexedModuleClassLoader classLoader, IndexedJar[] jars) {
+            super(classLoader, collectedClassLoaders);
+            this.jars = jars;
+        }
+
+        void closeJars() {
+            for (IndexedJar indexedJar : jars) {
+                try {
+                    indexedJar.close();
+                } catch (IOException ignored) {
+                    // Nothing more can be done
+                }
+            }
+        }
+    }
+
+    /**
+     * A module JAR and the names of its entries. The JAR itself is opened on first use.
+     */
+    private static class IndexedJar {
+        private final File file;
+        private final URL url;
+        private final long length;
+        private final long lastModified;
+        private final String[] entries;
+        // Whether the entries were read from the JAR itself rather than from a persisted index
+        private final boolean scanned;
+        private volatile JarFile jarFile;
+
+        IndexedJar(File file, long length, long lastModified, String[] entries, boolean scanned) {
+            this.file = file;
+            this.url = toURL(file);
+            this.length = length;
+            this.lastModified = lastModified;
+            this.entries = entries;
+            this.scanned = scanned;
+        }
+
+        JarFile open() throws IOException {
+            JarFile opened = jarFile;
+            if (opened == null) {
+                synchronized (this) {
+                    opened = jarFile;
+                    if (opened == null) {
+                        opened = new JarFile(file);
+                        jarFile = opened;
+                    }
+                }
+            }
+            return opened;
+        }
+
+        URL getResource(String name) {
+            try {
+                return new URL("jar:" + url + "!/" + name);
+            } catch (MalformedURLException mue) {
+                return null;
+            }
+        }
+
+        synchronized void close() throws IOException {
+            if (jarFile != null) {
+                jarFile.close();
+                jarFile = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessSessionFactory;
+import org.apache.nifi.processor.exception.ProcessException;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An ExecuteScript that keeps statistics per trigger thread: the number of triggers, commits, rollbacks and failures
+ * (exceptions thrown from the script), and the time spent in triggers. The latency of each trigger can also be
+ * recorded in a histogram. This is used to check how a script behaves when triggered concurrently, and to benchmark
+ * it. A failed trigger is recorded (and its session rolled back, as usual) rather than propagated, so that one
+ * failure doesn't stop the other threads.
+ */
+public class InstrumentedExecuteScript extends AccessibleExecuteScript {
+
+    private final Map<String, ThreadStatistics> threadStatistics = new ConcurrentHashMap<>();
+    private volatile LatencyHistogram latencyHistogram;
+
+    @Override
+    public void onTrigger(ProcessContext context, ProcessSessionFactory sessionFactory) throws ProcessException {
+        final ThreadStatistics statistics = threadStatistics.computeIfAbsent(Thread.currentThread().getName(), ThreadStatistics::new);
+        final long start = System.nanoTime();
+        try {
+            super.onTrigger(context, () -> instrument(sessionFactory.createSession(), statistics));
+        } catch (final Throwable t) {
+            statistics.failures.incrementAndGet();
+            statistics.firstFailure.compareAndSet(null, t);
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            statistics.triggers.incrementAndGet();
+            statistics.nanos.addAndGet(nanos);
+            final LatencyHistogram histogram = latencyHistogram;
+            if (histogram != null) {
+                histogram.record(nanos);
+            }
+        }
+    }
+
+    private static ProcessSession instrument(final ProcessSession session, final ThreadStatistics statistics) {
+        return (ProcessSession) Proxy.newProxyInstance(ProcessSession.class.getClassLoader(), new Class<?>[]{ProcessSession.class},
+                (proxy, method, args) -> {
+                    if ("commit".equals(method.getName())) {
+                        statistics.commits.incrementAndGet();
+                    } else if ("rollback".equals(method.getName())) {
+                        statistics.rollbacks.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(session, args);
+                    } catch (InvocationTargetException ite) {
+                        throw ite.getCause();
+                    }
+                });
+    }
+
+    /**
+     * @return the statistics for each thread that has triggered the processor
+     */
+    public List<ThreadStatistics> getThreadStatistics() {
+        return new ArrayList<>(threadStatistics.values());
+    }
+
+    /**
+     * Sets a histogram in which to record the latency of each trigger
+     *
+     * @param latencyHistogram the histogram, or null to stop recording latencies
+     */
+    public void setLatencyHistogram(LatencyHistogram latencyHistogram) {
+        this.latencyHistogram = latencyHistogram;
+    }
+
+    public void resetThreadStatistics() {
+        threadStatistics.clear();
+    }
+
+    /**
+     * The statistics for one trigger thread
+     */
+    public static class ThreadStatistics {
+        private final String threadName;
+        private final AtomicLong triggers = new AtomicLong();
+        private final AtomicLong commits = new AtomicLong();
+        private final AtomicLong rollbacks = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+        ThreadStatistics(String threadName) {
+            this.threadName = threadName;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public long getTriggers() {
+            return triggers.get();
+        }
+
+        public long getCommits() {
+            return commits.get();
+        }
+
+        public long getRollbacks() {
+            return rollbacks.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /** @return the total time spent in triggers, in nanoseconds */
+        public long getNanos() {
+            return nanos.get();
+        }
+
+        /** @return the first exception thrown from a trigger on this thread, or null if none was */
+        public Throwable getFirstFailure() {
+            return firstFailure.get();
+        }
+    }
+}
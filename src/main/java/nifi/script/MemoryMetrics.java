@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the memory used by a script: the bytes allocated by each trigger (on the trigger's thread, see
+ * {@link AccessibleExecuteScript#setMemoryMetrics}), and across the run, the garbage collections and the peak heap
+ * and metaspace usage. Allocation per flow file and per input byte are relative to the input recorded with
+ * {@link #recordInput}, so script variants can be compared on the same input.
+ * <p>
+ * Allocation is measured with com.sun.management.ThreadMXBean, so it is only available on JVMs that support it
+ * (such as HotSpot). The peak heap usage is the sum of the peaks of the heap memory pools, which may have peaked at
+ * different times, so it can overstate the actual peak.
+ */
+public class MemoryMetrics {
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    // Counts bytes rather than nanoseconds, with the same log-linear accuracy
+    private final LatencyHistogram triggerAllocations = new LatencyHistogram();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder inputFlowFiles = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private long startGcCount;
+    private long startGcMillis;
+
+    public MemoryMetrics() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threadMXBean = null;
+        }
+        start();
+    }
+
+    /**
+     * Starts measuring again: clears the allocations and input recorded so far, and resets the peak memory usage
+     * and the garbage collection counts
+     */
+    public void start() {
+        triggerAllocations.reset();
+        allocatedBytes.reset();
+        inputFlowFiles.reset();
+        inputBytes.reset();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        startGcCount = gcCount();
+        startGcMillis = gcMillis();
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, to be passed to {@link #triggerFinished}, or -1 if
+     * allocation cannot be measured
+     */
+    long triggerStarted() {
+        return threadMXBean == null ? -1 : threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Records the bytes allocated by the current thread during a trigger
+     *
+     * @param startBytes the value returned by {@link #triggerStarted} at the start of the trigger
+     */
+    void triggerFinished(long startBytes) {
+        if (startBytes >= 0) {
+            final long allocated = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+            triggerAllocations.record(allocated);
+            allocatedBytes.add(allocated);
+        }
+    }
+
+    /**
+     * Records a flow file given to the script
+     *
+     * @param bytes the size of its content
+     */
+    public void recordInput(long bytes) {
+        inputFlowFiles.increment();
+        inputBytes.add(bytes);
+    }
+
+    /**
+     * @return whether the JVM can measure the bytes allocated by a thread
+     */
+    public boolean isAllocationSupported() {
+        return threadMXBean != null;
+    }
+
+    /**
+     * @return the histogram of the bytes allocated by each trigger
+     */
+    public LatencyHistogram getTriggerAllocations() {
+        return triggerAllocations;
+    }
+
+    /**
+     * @return the total bytes allocated by triggers
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    public long getInputFlowFiles() {
+        return inputFlowFiles.sum();
+    }
+
+    public long getInputBytes() {
+        return inputBytes.sum();
+    }
+
+    /**
+     * @return the number of garbage collections (by all collectors) since measuring started
+     */
+    public long getGcCount() {
+        return gcCount() - startGcCount;
+    }
+
+    /**
+     * @return the approximate time spent in garbage collection (by all collectors) since measuring started
+     */
+    public long getGcMillis() {
+        return gcMillis() - startGcMillis;
+    }
+
+    /**
+     * @return the peak heap usage since measuring started, as the sum of the peaks of the heap memory pools
+     */
+    public long getPeakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return the peak metaspace usage since measuring started (where script classes are loaded), or -1 if the JVM
+     * has no metaspace pool
+     */
+    public long getPeakMetaspaceBytes() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                return pool.getPeakUsage().getUsed();
+            }
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
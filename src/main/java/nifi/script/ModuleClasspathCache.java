@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A JVM-wide cache of resolved module classpaths and the class loaders created for them, so that processors (and
+ * runs) using the same, unchanged modules neither rescan the module directories nor load the module classes again.
+ * <p>
+ * Entries are keyed by the module paths and the name, modification time and size of each JAR they resolve to, so
+ * adding, removing, renaming, replacing or overwriting a module JAR causes the modules to be resolved again. The
+ * modification time of a module directory itself is not used, as it also changes when a module index is written
+ * there (see {@link IndexedModuleClassLoader}).
+ */
+public class ModuleClasspathCache {
+
+    // The maximum number of entries to keep, so a long run with changing modules doesn't grow without bound
+    private static final int MAX_ENTRIES = 32;
+
+    private static final Map<String, URL[]> moduleURLs = lruMap();
+
+    // Module class loaders keyed by their parent class loader, then by the module classpath. A module class loader
+    // refers to its parent, so it is held weakly; otherwise the parent key could never be collected.
+    // Processors using a module class loader keep it reachable, and so shared, for as long as they run
+    private static final Map<ClassLoader, Map<String, WeakReference<ClassLoader>>> moduleClassLoaders = new WeakHashMap<>();
+
+    private static <V> Map<String, V> lruMap() {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Computes a fingerprint of the given module paths that changes when any module file, or the set of JARs in a
+     * module directory, is modified
+     *
+     * @param modulePaths the module paths
+     * @return the absolute paths, plus the name, modification time and size of each JAR
+     */
+    public static String fingerprint(String[] modulePaths) {
+        if (modulePaths == null) {
+            return "";
+        }
+        StringBuilder fingerprint = new StringBuilder();
+        for (String modulePath : modulePaths) {
+            File file = new File(modulePath);
+            fingerprint.append(file.getAbsolutePath());
+            if (file.isDirectory()) {
+                File[] jarFiles = file.listFiles((dir, name) -> name.endsWith(".jar"));
+                if (jarFiles != null) {
+                    Arrays.sort(jarFiles, Comparator.comparing(File::getName));
+                    for (File jarFile : jarFiles) {
+                        appendFile(fingerprint.append(File.pathSeparatorChar).append(jarFile.getName()), jarFile);
+                    }
+                }
+            } else if (file.isFile()) {
+                appendFile(fingerprint, file);
+            } else {
+                fingerprint.append("@-1");
+            }
+            fingerprint.append(File.pathSeparatorChar);
+        }
+        return fingerprint.toString();
+    }
+
+    private static void appendFile(StringBuilder fingerprint, File file) {
+        fingerprint.append('@').append(file.lastModified()).append(':').append(file.length());
+    }
+
+    /**
+     * Returns the module URLs for the given module paths, resolving them only if they haven't been resolved before
+     * or have changed since.
+     *
+     * @param modulePaths the module paths
+     * @param resolver    resolves the module paths to URLs
+     * @return the module URLs
+     */
+    public static URL[] getModuleURLs(String[] modulePaths, Supplier<URL[]> resolver) {
+        final String key = fingerprint(modulePaths);
+        URL[] urls;
+        synchronized (moduleURLs) {
+            urls = moduleURLs.get(key);
+        }
+        if (urls == null) {
+            urls = resolver.get();
+            synchronized (moduleURLs) {
+                moduleURLs.put(key, urls);
+            }
+        }
+        return urls.clone();
+    }
+
+    /**
+     * Returns a class loader for the given module URLs, creating it only if no class loader exists for the same
+     * parent, URLs and (unchanged) module paths.
+     *
+     * @param urls         the module URLs
+     * @param modulePaths  the module paths the URLs were resolved from
+     * @param parent       the parent class loader
+     * @param persistIndex whether to persist the index of the module JARs alongside them
+     * @return a class loader for the module URLs
+     * @see IndexedModuleClassLoader
+     */
+    public static ClassLoader getClassLoader(URL[] urls, String[] modulePaths, ClassLoader parent, boolean persistIndex) {
+        final String key = Arrays.toString(urls) + fingerprint(modulePaths);
+        IndexedModuleClassLoader.closeCollectedJars();
+        synchronized (moduleClassLoaders) {
+            Map<String, WeakReference<ClassLoader>> parentClassLoaders = moduleClassLoaders.computeIfAbsent(parent, k -> lruMap());
+            WeakReference<ClassLoader> classLoaderReference = parentClassLoaders.get(key);
+            ClassLoader classLoader = classLoaderReference == null ? null : classLoaderReference.get();
+            if (classLoader == null) {
+                // Class loaders for earlier versions of the modules may still be in use, so they are left to be
+                // collected rather than closed when evicted. Their JARs are closed once they have been collected
+                classLoader = IndexedModuleClassLoader.newInstance(urls, parent, persistIndex);
+                parentClassLoaders.put(key, new WeakReference<>(classLoader));
+            }
+            return classLoader;
+        }
+    }
+}
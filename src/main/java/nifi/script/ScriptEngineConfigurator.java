@@ -19,6 +19,7 @@ package nifi.script;
 
 import org.apache.nifi.logging.ComponentLog;
 
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import java.net.URL;
@@ -37,4 +38,12 @@ public interface ScriptEngineConfigurator {
 
     Object eval(ScriptEngine engine, String scriptBody, String[] modulePaths) throws ScriptException;
 
+    /**
+     * Compiles the given script body for repeated evaluation by the given engine.
+     *
+     * @param cache an on-disk cache of compiled scripts to use (if supported by the engine), or null for none
+     * @return the compiled script, or null if the engine does not support compilation (in which case eval() is used)
+     */
+    CompiledScript compile(ScriptEngine engine, String scriptBody, String[] modulePaths, CompiledScriptCache cache) throws ScriptException;
+
 }
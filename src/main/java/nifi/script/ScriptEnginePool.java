@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A pool of script engines. The pool starts with a minimum number of engines and grows lazily up to a maximum,
+ * handing out the most recently used engine first so that warm engines are preferred. Engines above the minimum
+ * that have been idle longer than the idle timeout are evicted, when engines are released and periodically on a
+ * background thread (so a pool that is no longer used still shrinks), until the pool is closed. Counters are kept
+ * for acquisitions, misses (no engine became available within the acquisition timeout), time spent waiting, and
+ * engines in use.
+ */
+public class ScriptEnginePool {
+
+    /**
+     * Creates (and initializes) engines for the pool
+     */
+    public interface EngineFactory {
+        ScriptEngine create() throws ScriptException;
+    }
+
+    private final EngineFactory engineFactory;
+    private final Consumer<ScriptEngine> evictionListener;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+
+    // Evicts idle engines while the pool is not being used, or null if the pool cannot shrink
+    private final ScheduledExecutorService evictor;
+
+    // Permits for engines that may be handed out, so at most maxSize engines are ever in use
+    private final Semaphore permits;
+
+    // Idle engines, most recently released first
+    private final ConcurrentLinkedDeque<IdleEngine> idleEngines = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * @param engineFactory     creates engines when the pool grows
+     * @param evictionListener  called for each engine that is evicted from the pool
+     * @param minSize           the number of engines to keep even when idle
+     * @param maxSize           the maximum number of engines in the pool
+     * @param idleTimeoutMillis how long an engine above the minimum may be idle before it is evicted
+     */
+    public ScriptEnginePool(EngineFactory engineFactory, Consumer<ScriptEngine> evictionListener, int minSize, int maxSize, long idleTimeoutMillis) {
+        if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid script engine pool size: minimum " + minSize + ", maximum " + maxSize);
+        }
+        this.engineFactory = engineFactory;
+        this.evictionListener = evictionListener;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.permits = new Semaphore(maxSize, true);
+        if (minSize < maxSize) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ScriptEngine pool evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long evictionPeriodNanos = Math.max(idleTimeoutNanos / 2, TimeUnit.MILLISECONDS.toNanos(10));
+            evictor.scheduleWithFixedDelay(() -> evictIdle(System.nanoTime()), evictionPeriodNanos, evictionPeriodNanos, TimeUnit.NANOSECONDS);
+        } else {
+            evictor = null;
+        }
+    }
+
+    /**
+     * Adds an already created engine to the pool, such as those created eagerly when the processor is scheduled.
+     *
+     * @param engine the engine to add
+     * @return true if the engine was added, false if the pool is already at its maximum size
+     */
+    public boolean offer(ScriptEngine engine) {
+        if (size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            return false;
+        }
+        created.increment();
+        idleEngines.addFirst(new IdleEngine(engine, System.nanoTime()));
+        return true;
+    }
+
+    /**
+     * Acquires an engine, waiting up to the given timeout for one to become available. If no idle engine exists
+     * but the pool is below its maximum size, a new engine is created.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return an engine, which must be returned with {@link #release(ScriptEngine)}, or null if none became available
+     * @throws ScriptException if a new engine could not be created
+     */
+    public ScriptEngine acquire(long timeout, TimeUnit unit) throws ScriptException {
+        final long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = timeout > 0 ? permits.tryAcquire(timeout, unit) : permits.tryAcquire();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        waitNanos.add(System.nanoTime() - start);
+        if (!acquired) {
+            misses.increment();
+            return null;
+        }
+
+        try {
+            IdleEngine idleEngine = idleEngines.pollFirst();
+            ScriptEngine engine;
+            if (idleEngine != null) {
+                engine = idleEngine.engine;
+            } else {
+                // A permit guarantees the pool is below its maximum, so grow it
+                engine = engineFactory.create();
+                size.incrementAndGet();
+                created.increment();
+            }
+            inUse.incrementAndGet();
+            acquisitions.increment();
+            return engine;
+        } catch (ScriptException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns an engine to the pool, and evicts engines that have been idle too long.
+     *
+     * @param engine an engine obtained from {@link #acquire(long, TimeUnit)}
+     */
+    public void release(ScriptEngine engine) {
+        final long now = System.nanoTime();
+        idleEngines.addFirst(new IdleEngine(engine, now));
+        inUse.decrementAndGet();
+        permits.release();
+        evictIdle(now);
+    }
+
+    private void evictIdle(long now) {
+        // The least recently used engines are at the end of the deque
+        IdleEngine idleEngine;
+        while ((idleEngine = idleEngines.peekLast()) != null && now - idleEngine.idleSince > idleTimeoutNanos) {
+            // Take the engine out of the size first, so concurrent evictions can't shrink the pool below its minimum
+            int currentSize;
+            do {
+                currentSize = size.get();
+                if (currentSize <= minSize) {
+                    return;
+                }
+            } while (!size.compareAndSet(currentSize, currentSize - 1));
+            if (idleEngines.removeLastOccurrence(idleEngine)) {
+                evicted.increment();
+                if (evictionListener != null) {
+                    evictionListener.accept(idleEngine.engine);
+                }
+            } else {
+                // The engine was acquired (or evicted) by another thread in the meantime
+                size.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the engines currently idle in the pool
+     */
+    public List<ScriptEngine> getIdleEngines() {
+        List<ScriptEngine> engines = new ArrayList<>(idleEngines.size());
+        for (IdleEngine idleEngine : idleEngines) {
+            engines.add(idleEngine.engine);
+        }
+        return engines;
+    }
+
+    /**
+     * Removes all idle engines from the pool
+     */
+    public void clear() {
+        IdleEngine idleEngine;
+        while ((idleEngine = idleEngines.pollFirst()) != null) {
+            size.decrementAndGet();
+            if (evictionListener != null) {
+                evictionListener.accept(idleEngine.engine);
+            }
+        }
+    }
+
+    /**
+     * Removes all idle engines from the pool and stops evicting engines in the background
+     */
+    public void close() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        clear();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return the number of engines currently in the pool, idle or in use */
+    public int getSize() {
+        return size.get();
+    }
+
+    /** @return the number of engines currently in use */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /** @return the number of times an engine was acquired */
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /** @return the number of times no engine became available within the acquisition timeout */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return the total time spent waiting for an engine, in nanoseconds */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /** @return the number of engines created for (or added to) the pool */
+    public long getCreated() {
+        return created.sum();
+    }
+
+    /** @return the number of engines evicted after being idle too long */
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ScriptEnginePool[size=" + getSize() + " (min " + minSize + ", max " + maxSize + "), inUse=" + getInUse()
+                + ", acquisitions=" + getAcquisitions() + ", misses=" + getMisses()
+                + ", waitMillis=" + TimeUnit.NANOSECONDS.toMillis(getWaitNanos())
+                + ", created=" + getCreated() + ", evicted=" + getEvicted() + "]";
+    }
+
+    private static class IdleEngine {
+        private final ScriptEngine engine;
+        private final long idleSince;
+
+        IdleEngine(ScriptEngine engine, long idleSince) {
+            this.engine = engine;
+            this.idleSince = idleSince;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.WeakHashMap;
+
+/**
+ * The script engine factories and script engine configurators available to a class loader. Discovering them scans
+ * the classpath and instantiates every factory, so it is done once per class loader and the (immutable) registry
+ * is shared by all scripting components in the JVM that use it. Factories and configurators are expected to be thread-safe,
+ * as the JSR-223 factories and the provided configurators are.
+ * <p>
+ * When the language is known up front (such as from the script file extension), a registry containing only the
+ * factory for that language can be used instead, so the other engines are never loaded.
+ */
+public class ScriptEngineRegistry {
+
+    // The registry key for a registry containing all available factories
+    private static final String ALL_FACTORIES = "*";
+
+    // Registries keyed by class loader, then by factory class name (or ALL_FACTORIES). A registry's factories and
+    // configurators are loaded by its class loader, so a strongly held registry would keep its (weakly referenced)
+    // class loader from ever being collected. Soft references keep the registries between schedules, and only let
+    // them go when memory runs low
+    private static final Map<ClassLoader, Map<String, SoftReference<ScriptEngineRegistry>>> registries = new WeakHashMap<>();
+
+    private final Map<String, ScriptEngineFactory> scriptEngineFactories;
+    private final Map<String, ScriptEngineConfigurator> scriptEngineConfigurators;
+
+    private ScriptEngineRegistry(ClassLoader classLoader, List<ScriptEngineFactory> factories) {
+        Map<String, ScriptEngineFactory> factoryMap = new LinkedHashMap<>();
+        if (factories != null) {
+            for (ScriptEngineFactory factory : factories) {
+                factoryMap.put(factory.getLanguageName(), factory);
+            }
+        }
+        scriptEngineFactories = Collections.unmodifiableMap(factoryMap);
+
+        // Configurators are cheap to create, but only those for the available engines are kept
+        Map<String, ScriptEngineConfigurator> configuratorMap = new LinkedHashMap<>();
+        for (ScriptEngineConfigurator configurator : ServiceLoader.load(ScriptEngineConfigurator.class, classLoader)) {
+            String scriptEngineName = configurator.getScriptEngineName();
+            if (containsIgnoreCase(factoryMap.keySet(), scriptEngineName)) {
+                configuratorMap.put(scriptEngineName.toLowerCase(), configurator);
+            }
+        }
+        scriptEngineConfigurators = Collections.unmodifiableMap(configuratorMap);
+    }
+
+    private static boolean containsIgnoreCase(Iterable<String> names, String name) {
+        for (String n : names) {
+            if (n.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the registry for the current thread's context class loader, which is the class loader the
+     * ScriptEngineManager and ServiceLoader would otherwise use
+     */
+    public static ScriptEngineRegistry getInstance() {
+        return getInstance(Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Returns the registry for the given class loader, discovering its factories and configurators the first time.
+     *
+     * @param classLoader the class loader to discover factories and configurators with
+     * @return the registry for the class loader
+     */
+    public static ScriptEngineRegistry getInstance(ClassLoader classLoader) {
+        synchronized (registries) {
+            ScriptEngineRegistry registry = getRegistry(classLoader, ALL_FACTORIES);
+            if (registry == null) {
+                registry = new ScriptEngineRegistry(classLoader, new ScriptEngineManager(classLoader).getEngineFactories());
+                putRegistry(classLoader, ALL_FACTORIES, registry);
+            }
+            return registry;
+        }
+    }
+
+    /**
+     * Returns a registry containing only the given factory (and the configurator for its engine, if any), so that no
+     * other script engines are loaded. If the factory class cannot be loaded, all available factories are
+     * discovered instead.
+     *
+     * @param classLoader      the class loader to load the factory and configurators with
+     * @param factoryClassName the fully-qualified class name of the ScriptEngineFactory
+     * @return a registry for the given factory
+     */
+    public static ScriptEngineRegistry getInstance(ClassLoader classLoader, String factoryClassName) {
+        synchronized (registries) {
+            ScriptEngineRegistry registry = getRegistry(classLoader, factoryClassName);
+            if (registry == null) {
+                ScriptEngineFactory factory;
+                try {
+                    factory = (ScriptEngineFactory) Class.forName(factoryClassName, true, classLoader).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+                    return getInstance(classLoader);
+                }
+                registry = new ScriptEngineRegistry(classLoader, Collections.singletonList(factory));
+                putRegistry(classLoader, factoryClassName, registry);
+            }
+            return registry;
+        }
+    }
+
+    /**
+     * @return the registry for the given class loader and key, or null if there is none (or it has been collected).
+     * The caller must hold the lock on the registries
+     */
+    private static ScriptEngineRegistry getRegistry(ClassLoader classLoader, String key) {
+        final Map<String, SoftReference<ScriptEngineRegistry>> classLoaderRegistries = registries.get(classLoader);
+        final SoftReference<ScriptEngineRegistry> registry = classLoaderRegistries == null ? null : classLoaderRegistries.get(key);
+        return registry == null ? null : registry.get();
+    }
+
+    private static void putRegistry(ClassLoader classLoader, String key, ScriptEngineRegistry registry) {
+        registries.computeIfAbsent(classLoader, k -> new HashMap<>()).put(key, new SoftReference<>(registry));
+    }
+
+    /**
+     * @return the available script engine factories, keyed by language name
+     */
+    public Map<String, ScriptEngineFactory> getScriptEngineFactories() {
+        return scriptEngineFactories;
+    }
+
+    /**
+     * @return the available script engine configurators, keyed by lower-case script engine name
+     */
+    public Map<String, ScriptEngineConfigurator> getScriptEngineConfigurators() {
+        return scriptEngineConfigurators;
+    }
+}
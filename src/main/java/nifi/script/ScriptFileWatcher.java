@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.nifi.logging.ComponentLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a script file for changes on a background thread, and passes the new contents of the file to a callback
+ * whenever they change.
+ */
+public class ScriptFileWatcher implements Closeable {
+
+    // How long to wait for further events after a change, as editors often write a file in several steps
+    private static final long SETTLE_MILLIS = 100;
+
+    private final Path scriptFile;
+    private final Consumer<String> onChange;
+    private final ComponentLog log;
+    private final WatchService watchService;
+    private final Thread watchThread;
+    private volatile String lastContents;
+
+    /**
+     * @param scriptFile      the script file to watch
+     * @param initialContents the current contents of the script file, so only actual changes are reported
+     * @param onChange        called with the new contents of the file when they change
+     * @param log             a provided logger for error/info messages
+     * @throws IOException if the file's directory cannot be watched
+     */
+    public ScriptFileWatcher(Path scriptFile, String initialContents, Consumer<String> onChange, ComponentLog log) throws IOException {
+        this.scriptFile = scriptFile.toAbsolutePath();
+        this.lastContents = initialContents;
+        this.onChange = onChange;
+        this.log = log;
+        this.watchService = this.scriptFile.getFileSystem().newWatchService();
+        this.scriptFile.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watchThread = new Thread(this::watch, "Script file watcher (" + this.scriptFile.getFileName() + ")");
+        this.watchThread.setDaemon(true);
+    }
+
+    public void start() {
+        watchThread.start();
+    }
+
+    private void watch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean changed = drainEvents(key);
+                // Collect any follow-up events from the same save before reading the file
+                WatchKey nextKey;
+                while ((nextKey = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= drainEvents(nextKey);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The watcher has been closed
+        }
+    }
+
+    /**
+     * Reads the script file and passes its contents to the callback if they changed. Failures are logged rather
+     * than thrown, so that the next save is still picked up: an editor that saves by writing a new file and renaming
+     * it over the old one can leave the file missing for a moment
+     */
+    private void reload() {
+        try {
+            if (Files.isRegularFile(scriptFile)) {
+                String contents = new String(Files.readAllBytes(scriptFile), Charset.defaultCharset());
+                if (!contents.equals(lastContents)) {
+                    lastContents = contents;
+                    onChange.accept(contents);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Unable to reload script file {} due to {}", new Object[]{scriptFile, e}, e);
+        }
+    }
+
+    private boolean drainEvents(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            if (context instanceof Path && scriptFile.getFileName().equals(context)) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchThread.interrupt();
+        watchService.close();
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.python.core.Py;
+import org.python.core.PyFrame;
+import org.python.core.ThreadState;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * A sampling profiler for scripts run by ExecuteScript. While a thread is in a trigger (between {@link #enter()} and
+ * {@link #exit()}, see {@link AccessibleExecuteScript#setProfiler}), its stack is sampled at a fixed interval by a
+ * background thread. Frames of the compiled script are recognized by their source file name, which the engines set
+ * to a name of their own rather than the script's path: ScriptXXX.groovy for Groovy, &lt;script&gt; for Jython and
+ * &lt;eval&gt; for Nashorn. Those frames are attributed to the lines of the script file. Jython's compiled code has
+ * unreliable Java line numbers (most of a function maps to its last line), so for Jython the lines and function
+ * names come from the thread's Python frames instead.
+ * <p>
+ * Each sample counts towards the innermost script line on the stack (its self samples, including time spent in
+ * anything it calls), and towards every script line on the stack (its total samples). The sampled stacks, from
+ * the trigger down, can also be written in the collapsed format read by flame graph tools.
+ */
+public class ScriptProfiler implements Closeable {
+
+    private static final Pattern SCRIPT_FILE_NAME = Pattern.compile("Script\\w*\\.groovy|<script>|<eval>");
+    private static final String TRIGGER_CLASS = ExecuteScript.class.getName();
+
+    private final String scriptFileName;
+    private final long intervalNanos;
+    private final Set<Thread> triggerThreads = ConcurrentHashMap.newKeySet();
+    // For Jython scripts, the Python thread state of each thread in a trigger
+    private final Map<Thread, ThreadState> pythonThreadStates = new ConcurrentHashMap<>();
+    private final boolean python;
+    private final Thread sampler;
+    private volatile boolean running = true;
+
+    // Updated by the sampler thread, and read once sampling is done
+    private final Map<Integer, long[]> lineSamples = new HashMap<>();
+    private final Map<String, Long> stackSamples = new HashMap<>();
+    private long samples;
+    private long scriptSamples;
+
+    /**
+     * Creates a profiler and starts its sampling thread
+     *
+     * @param scriptFileName the name of the script file, for the frames of the compiled script
+     * @param interval       the interval between samples
+     * @param unit           the unit of the interval
+     */
+    public ScriptProfiler(String scriptFileName, long interval, TimeUnit unit) {
+        this.scriptFileName = scriptFileName;
+        this.intervalNanos = unit.toNanos(interval);
+        this.python = scriptFileName.endsWith(".py");
+        sampler = new Thread(this::sample, "Script profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    /**
+     * Starts sampling the current thread, as it enters a trigger
+     */
+    public void enter() {
+        if (python) {
+            pythonThreadStates.put(Thread.currentThread(), Py.getThreadState());
+        }
+        triggerThreads.add(Thread.currentThread());
+    }
+
+    /**
+     * Stops sampling the current thread, as it leaves a trigger
+     */
+    public void exit() {
+        triggerThreads.remove(Thread.currentThread());
+        pythonThreadStates.remove(Thread.currentThread());
+    }
+
+    private void sample() {
+        while (running) {
+            final long next = System.nanoTime() + intervalNanos;
+            for (Thread thread : triggerThreads) {
+                final StackTraceElement[] stack = thread.getStackTrace();
+                final ThreadState pythonThreadState = pythonThreadStates.get(thread);
+                final List<ScriptFrame> pythonFrames = pythonThreadState == null ? null : pythonFrames(pythonThreadState);
+                // The thread may have left the trigger while its stack was taken
+                if (triggerThreads.contains(thread)) {
+                    record(stack, pythonFrames);
+                }
+            }
+            long remaining;
+            while (running && (remaining = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    /**
+     * @return the frames of the script's code on the thread's Python stack, innermost first
+     */
+    private static List<ScriptFrame> pythonFrames(ThreadState threadState) {
+        final List<ScriptFrame> frames = new ArrayList<>();
+        for (PyFrame frame = threadState.frame; frame != null; frame = frame.f_back) {
+            if (frame.f_code != null && "<script>".equals(frame.f_code.co_filename)) {
+                frames.add(new ScriptFrame(frame.f_code.co_name, frame.f_lineno));
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Records a sample
+     *
+     * @param stack        the sampled stack, innermost frame first
+     * @param pythonFrames for Jython, the script's frames on the Python stack (innermost first), otherwise null
+     */
+    private synchronized void record(StackTraceElement[] stack, List<ScriptFrame> pythonFrames) {
+        // Only the frames from the trigger in are of interest
+        int triggerFrame = stack.length - 1;
+        for (int i = 0; i < stack.length; i++) {
+            if (TRIGGER_CLASS.equals(stack[i].getClassName()) && "onTrigger".equals(stack[i].getMethodName())) {
+                triggerFrame = i;
+                break;
+            }
+        }
+        final ScriptFrame[] scriptFrames = new ScriptFrame[triggerFrame + 1];
+        ScriptFrame innermost = null;
+        int scriptFrameCount = 0;
+        for (int i = 0; i <= triggerFrame; i++) {
+            if (isScriptFrame(stack[i])) {
+                // A Python frame may be missing if the thread moved on after its stack was taken
+                scriptFrames[i] = pythonFrames != null && scriptFrameCount < pythonFrames.size()
+                        ? pythonFrames.get(scriptFrameCount)
+                        : new ScriptFrame(scriptMethodName(stack[i]), stack[i].getLineNumber());
+                scriptFrameCount++;
+                if (innermost == null) {
+                    innermost = scriptFrames[i];
+                }
+            }
+        }
+
+        samples++;
+        final Set<Integer> linesOnStack = new HashSet<>();
+        final StringBuilder collapsed = new StringBuilder();
+        for (int i = triggerFrame; i >= 0; i--) {
+            if (collapsed.length() > 0) {
+                collapsed.append(';');
+            }
+            final ScriptFrame scriptFrame = scriptFrames[i];
+            if (scriptFrame != null) {
+                collapsed.append(scriptFrame.name).append(" (").append(scriptFileName).append(':').append(scriptFrame.line).append(')');
+                if (linesOnStack.add(scriptFrame.line)) {
+                    lineSamples.computeIfAbsent(scriptFrame.line, line -> new long[2])[1]++;
+                }
+            } else {
+                collapsed.append(stack[i].getClassName()).append('.').append(stack[i].getMethodName());
+            }
+        }
+        if (innermost != null) {
+            lineSamples.get(innermost.line)[0]++;
+            scriptSamples++;
+        }
+        stackSamples.merge(collapsed.toString(), 1L, Long::sum);
+    }
+
+    private static boolean isScriptFrame(StackTraceElement frame) {
+        return frame.getLineNumber() > 0 && frame.getFileName() != null && SCRIPT_FILE_NAME.matcher(frame.getFileName()).matches();
+    }
+
+    /**
+     * @return the name of the script function a frame is in
+     */
+    private static String scriptMethodName(StackTraceElement frame) {
+        if (frame.getClassName().contains("$_")) {
+            // A Groovy closure, such as Script1$_run_closure1.doCall
+            return frame.getClassName().substring(frame.getClassName().indexOf("$_") + 2);
+        }
+        return frame.getMethodName();
+    }
+
+    /**
+     * @return the number of samples taken of threads in triggers
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the number of samples in which the script was on the stack (the rest were in the engine, the session
+     * or the processor, outside the script)
+     */
+    public synchronized long getScriptSamples() {
+        return scriptSamples;
+    }
+
+    /**
+     * @return the lines of the script that were sampled, with the most self samples first
+     */
+    public synchronized List<LineSamples> getHotLines() {
+        final List<LineSamples> hotLines = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> line : lineSamples.entrySet()) {
+            hotLines.add(new LineSamples(line.getKey(), line.getValue()[0], line.getValue()[1]));
+        }
+        hotLines.sort((a, b) -> a.selfSamples != b.selfSamples ? Long.compare(b.selfSamples, a.selfSamples) : Long.compare(b.totalSamples, a.totalSamples));
+        return hotLines;
+    }
+
+    /**
+     * Writes each sampled stack (from the trigger in, with frames separated by semicolons) and the number of times it
+     * was sampled, one per line, as read by flame graph tools such as flamegraph.pl and speedscope
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void writeCollapsedStacks(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> stack : stackSamples.entrySet()) {
+                writer.write(stack.getKey());
+                writer.write(' ');
+                writer.write(Long.toString(stack.getValue()));
+                writer.newLine();
+            }
+        }
+    }
+
+    public synchronized void reset() {
+        lineSamples.clear();
+        stackSamples.clear();
+        samples = 0;
+        scriptSamples = 0;
+    }
+
+    /**
+     * Stops the sampling thread
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A frame of the script: the function it is in, and the line
+     */
+    private static class ScriptFrame {
+        private final String name;
+        private final int line;
+
+        ScriptFrame(String name, int line) {
+            this.name = name;
+            this.line = line;
+        }
+    }
+
+    /**
+     * The samples of a line of the script
+     */
+    public static class LineSamples {
+        private final int line;
+        private final long selfSamples;
+        private final long totalSamples;
+
+        LineSamples(int line, long selfSamples, long totalSamples) {
+            this.line = line;
+            this.selfSamples = selfSamples;
+            this.totalSamples = totalSamples;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        /** @return the number of samples in which this was the innermost line of the script */
+        public long getSelfSamples() {
+            return selfSamples;
+        }
+
+        /** @return the number of samples in which this line was on the stack */
+        public long getTotalSamples() {
+            return totalSamples;
+        }
+    }
+}
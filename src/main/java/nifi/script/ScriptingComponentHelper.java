@@ -20,35 +20,42 @@ import org.apache.nifi.controller.ConfigurationContext;
 import org.apache.nifi.logging.ComponentLog;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.ServiceLoader;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
-import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
+import javax.script.SimpleBindings;
 
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.ValidationContext;
 import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.util.StringUtils;
 
 /**
@@ -56,20 +63,51 @@ import org.apache.nifi.util.StringUtils;
  */
 public class ScriptingComponentHelper {
 
+    // How long a reload waits for a script engine to compile the changed script on
+    private static final long RELOAD_ENGINE_TIMEOUT_SECONDS = 60;
+
     public PropertyDescriptor SCRIPT_ENGINE;
 
     // A map from engine name to a custom configurator for that engine
-    public final Map<String, ScriptEngineConfigurator> scriptEngineConfiguratorMap = new ConcurrentHashMap<>();
+    public Map<String, ScriptEngineConfigurator> scriptEngineConfiguratorMap = Collections.emptyMap();
     public final AtomicBoolean isInitialized = new AtomicBoolean(false);
 
     public Map<String, ScriptEngineFactory> scriptEngineFactoryMap;
+    private ScriptEngineRegistry scriptEngineRegistry;
     private String scriptEngineName;
     private String scriptPath;
     private String scriptBody;
     private String[] modules;
+    private boolean persistModuleIndex;
+    private String compiledScriptCacheDirectory;
+    private CompiledScriptCache compiledScriptCache;
+    private int warmUpIterations;
+    private int batchSize;
+    private Integer minScriptEngines;
+    private Integer maxScriptEngines;
+    private long engineAcquisitionTimeoutMillis;
+    private long engineIdleTimeoutMillis;
+
+    private boolean reloadScriptFile;
+    private ScriptFileWatcher scriptFileWatcher;
+    private final List<Runnable> scriptReloadListeners = new CopyOnWriteArrayList<>();
+
+    // The context class loader for engines (including the module path), the configurator for the selected engine,
+    // and the variables bound for every script, so engines created when the pool grows are set up the same way as
+    // the initial ones
+    private volatile ClassLoader engineClassLoader;
+    private volatile ScriptEngineConfigurator scriptEngineConfigurator;
+    private volatile Map<String, Object> staticBindings = Collections.emptyMap();
+
+    // The script body to run. It is replaced as a whole when the script file is reloaded, and each engine compiles
+    // the new body the next time it is used
+    private volatile String activeScriptBody;
     private List<PropertyDescriptor> descriptors;
 
-    public BlockingQueue<ScriptEngine> engineQ = null;
+    public ScriptEnginePool enginePool = null;
+
+    // A map from each pooled engine to the script compiled for it, along with the script body it was compiled from
+    private final Map<ScriptEngine, CompiledScriptEntry> compiledScriptMap = new ConcurrentHashMap<>();
 
     public String getScriptEngineName() {
         return scriptEngineName;
@@ -103,6 +141,123 @@ public class ScriptingComponentHelper {
         this.modules = modules;
     }
 
+    public String getCompiledScriptCacheDirectory() {
+        return compiledScriptCacheDirectory;
+    }
+
+    public void setCompiledScriptCacheDirectory(String compiledScriptCacheDirectory) {
+        this.compiledScriptCacheDirectory = compiledScriptCacheDirectory;
+    }
+
+    public int getWarmUpIterations() {
+        return warmUpIterations;
+    }
+
+    public void setWarmUpIterations(int warmUpIterations) {
+        this.warmUpIterations = warmUpIterations;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Integer getMinScriptEngines() {
+        return minScriptEngines;
+    }
+
+    public void setMinScriptEngines(Integer minScriptEngines) {
+        this.minScriptEngines = minScriptEngines;
+    }
+
+    public Integer getMaxScriptEngines() {
+        return maxScriptEngines;
+    }
+
+    public void setMaxScriptEngines(Integer maxScriptEngines) {
+        this.maxScriptEngines = maxScriptEngines;
+    }
+
+    public long getEngineAcquisitionTimeoutMillis() {
+        return engineAcquisitionTimeoutMillis;
+    }
+
+    public void setEngineAcquisitionTimeoutMillis(long engineAcquisitionTimeoutMillis) {
+        this.engineAcquisitionTimeoutMillis = engineAcquisitionTimeoutMillis;
+    }
+
+    public long getEngineIdleTimeoutMillis() {
+        return engineIdleTimeoutMillis;
+    }
+
+    public void setEngineIdleTimeoutMillis(long engineIdleTimeoutMillis) {
+        this.engineIdleTimeoutMillis = engineIdleTimeoutMillis;
+    }
+
+    /**
+     * Sets the registry to get the available script engines from, such as one containing only the engine for a known
+     * language. This must be called before the resources are created; by default all engines available to the
+     * context class loader are used.
+     *
+     * @param scriptEngineRegistry the registry of script engine factories and configurators
+     */
+    public void setScriptEngineRegistry(ScriptEngineRegistry scriptEngineRegistry) {
+        this.scriptEngineRegistry = scriptEngineRegistry;
+    }
+
+    /**
+     * @return the configurator for the selected script engine, or null if it has none. This is resolved when the
+     * engines are set up.
+     */
+    public ScriptEngineConfigurator getScriptEngineConfigurator() {
+        return scriptEngineConfigurator;
+    }
+
+    /**
+     * Sets the variables that are bound (in the engine scope) on every engine when it is created, as opposed to
+     * per-trigger variables such as the session.
+     *
+     * @param staticBindings a map from variable name to value
+     */
+    public void setStaticBindings(Map<String, Object> staticBindings) {
+        this.staticBindings = staticBindings;
+    }
+
+    public boolean isPersistModuleIndex() {
+        return persistModuleIndex;
+    }
+
+    public void setPersistModuleIndex(boolean persistModuleIndex) {
+        this.persistModuleIndex = persistModuleIndex;
+    }
+
+    public boolean isReloadScriptFile() {
+        return reloadScriptFile;
+    }
+
+    public void setReloadScriptFile(boolean reloadScriptFile) {
+        this.reloadScriptFile = reloadScriptFile;
+    }
+
+    /**
+     * @return the body of the script currently being run, which changes when a watched script file is reloaded
+     */
+    public String getActiveScriptBody() {
+        return activeScriptBody;
+    }
+
+    /**
+     * Adds a listener to be called after the script file has been reloaded and the new script is active.
+     *
+     * @param listener the listener to add
+     */
+    public void addScriptReloadListener(Runnable listener) {
+        scriptReloadListeners.add(listener);
+    }
+
     public List<PropertyDescriptor> getDescriptors() {
         return descriptors;
     }
@@ -143,15 +298,17 @@ public class ScriptingComponentHelper {
         // setting must be there before the factories/engines are loaded.
         System.setProperty("org.jruby.embed.localvariable.behavior", "persistent");
 
-        // Create list of available engines
-        ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
-        List<ScriptEngineFactory> scriptEngineFactories = scriptEngineManager.getEngineFactories();
-        if (scriptEngineFactories != null) {
-            scriptEngineFactoryMap = new HashMap<>(scriptEngineFactories.size());
+        // Create list of available engines. The factories are discovered once per class loader and shared while
+        // components (holding on to the registry) use them
+        if (scriptEngineRegistry == null) {
+            scriptEngineRegistry = ScriptEngineRegistry.getInstance();
+        }
+        scriptEngineFactoryMap = scriptEngineRegistry.getScriptEngineFactories();
+        scriptEngineConfiguratorMap = scriptEngineRegistry.getScriptEngineConfigurators();
+        if (!scriptEngineFactoryMap.isEmpty()) {
             List<AllowableValue> engineList = new LinkedList<>();
-            for (ScriptEngineFactory factory : scriptEngineFactories) {
-                engineList.add(new AllowableValue(factory.getLanguageName()));
-                scriptEngineFactoryMap.put(factory.getLanguageName(), factory);
+            for (String languageName : scriptEngineFactoryMap.keySet()) {
+                engineList.add(new AllowableValue(languageName));
             }
 
             // Sort the list by name so the list always looks the same.
@@ -182,6 +339,15 @@ public class ScriptingComponentHelper {
         descriptors.add(ScriptingComponentUtils.SCRIPT_FILE);
         descriptors.add(ScriptingComponentUtils.SCRIPT_BODY);
         descriptors.add(ScriptingComponentUtils.MODULES);
+        descriptors.add(ScriptingComponentUtils.PERSIST_MODULE_INDEX);
+        descriptors.add(ScriptingComponentUtils.COMPILED_SCRIPT_CACHE);
+        descriptors.add(ScriptingComponentUtils.WARM_UP_ITERATIONS);
+        descriptors.add(ScriptingComponentUtils.BATCH_SIZE);
+        descriptors.add(ScriptingComponentUtils.MIN_SCRIPT_ENGINES);
+        descriptors.add(ScriptingComponentUtils.MAX_SCRIPT_ENGINES);
+        descriptors.add(ScriptingComponentUtils.ENGINE_ACQUISITION_TIMEOUT);
+        descriptors.add(ScriptingComponentUtils.ENGINE_IDLE_TIMEOUT);
+        descriptors.add(ScriptingComponentUtils.RELOAD_SCRIPT_FILE);
 
         isInitialized.set(true);
     }
@@ -204,34 +370,37 @@ public class ScriptingComponentHelper {
      * @param log a provided logger for error/info messages
      */
     public void setup(int numberOfScriptEngines, ComponentLog log) {
-
-        if (scriptEngineConfiguratorMap.isEmpty()) {
-            ServiceLoader<ScriptEngineConfigurator> configuratorServiceLoader =
-                    ServiceLoader.load(ScriptEngineConfigurator.class);
-            for (ScriptEngineConfigurator configurator : configuratorServiceLoader) {
-                scriptEngineConfiguratorMap.put(configurator.getScriptEngineName().toLowerCase(), configurator);
-            }
-        }
         setupEngines(numberOfScriptEngines, log);
     }
 
     /**
      * Configures the specified script engine. First, the engine is loaded and instantiated using the JSR-223
      * javax.script APIs. Then, if any script configurators have been defined for this engine, their init() method is
-     * called, and the configurator is saved for future calls.
+     * called, and the configurator is saved for future calls. The engines are created and initialized in parallel
+     * (bounded by the number of available processors), each with the module class loader as its context class loader.
+     * The engine pool is created with the configured minimum and maximum number of engines (both defaulting to the
+     * given number of engines), and the minimum number of engines is created up front.
      *
-     * @param numberOfScriptEngines number of engines to setup
+     * @param numberOfScriptEngines number of engines to setup if the pool size is not configured
      * @see nifi.script.ScriptEngineConfigurator
      */
     protected void setupEngines(int numberOfScriptEngines, ComponentLog log) {
-        engineQ = new LinkedBlockingQueue<>(numberOfScriptEngines);
+        final int maxSize = maxScriptEngines != null ? maxScriptEngines : numberOfScriptEngines;
+        final int minSize = minScriptEngines != null ? Math.min(minScriptEngines, maxSize) : maxSize;
+        if (enginePool != null) {
+            // Rescheduled without being stopped, so stop the previous pool's eviction thread
+            enginePool.close();
+        }
+        enginePool = new ScriptEnginePool(() -> createPooledEngine(log), compiledScriptMap::remove, minSize, maxSize, engineIdleTimeoutMillis);
+        activeScriptBody = null;
         ClassLoader originalContextClassLoader = Thread.currentThread().getContextClassLoader();
         try {
             if (StringUtils.isBlank(scriptEngineName)) {
                 throw new IllegalArgumentException("The script engine name cannot be null");
             }
 
-            ScriptEngineConfigurator configurator = scriptEngineConfiguratorMap.get(scriptEngineName.toLowerCase());
+            final ScriptEngineConfigurator configurator = scriptEngineConfiguratorMap.get(scriptEngineName.toLowerCase());
+            scriptEngineConfigurator = configurator;
 
             // Get a list of URLs from the configurator (if present), or just convert modules from Strings to URLs
             URL[] additionalClasspathURLs = null;
@@ -251,31 +420,56 @@ public class ScriptingComponentHelper {
                 }
             }
 
+            compiledScriptCache = StringUtils.isEmpty(compiledScriptCacheDirectory)
+                    ? null
+                    : new CompiledScriptCache(Paths.get(compiledScriptCacheDirectory), modules, additionalClasspathURLs);
+
             // Need the right classloader when the engine is created. This ensures the NAR's execution class loader
-            // (plus the module path) becomes the parent for the script engine
+            // (plus the module path) becomes the parent for the script engine. The class loader indexes the module
+            // JARs, and is shared with other processors using the same unchanged modules, so module classes are only
+            // loaded once
             ClassLoader scriptEngineModuleClassLoader = additionalClasspathURLs != null
-                    ? new URLClassLoader(additionalClasspathURLs, originalContextClassLoader)
+                    ? ModuleClasspathCache.getClassLoader(additionalClasspathURLs, modules, originalContextClassLoader, persistModuleIndex)
                     : originalContextClassLoader;
             if (scriptEngineModuleClassLoader != null) {
                 Thread.currentThread().setContextClassLoader(scriptEngineModuleClassLoader);
             }
+            engineClassLoader = Thread.currentThread().getContextClassLoader();
+
+            // Create and initialize the engines in parallel, as each can take a significant amount of time
+            final int parallelism = Math.max(1, Math.min(minSize, Runtime.getRuntime().availableProcessors()));
+            final ExecutorService engineSetupExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "ScriptEngine setup (" + scriptEngineName + ")");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<ScriptEngine>> engineFutures = new ArrayList<>(minSize);
+                for (int i = 0; i < minSize; i++) {
+                    engineFutures.add(engineSetupExecutor.submit(() -> createPooledEngine(log)));
+                }
 
-            for (int i = 0; i < numberOfScriptEngines; i++) {
-                ScriptEngine scriptEngine = createScriptEngine();
-                try {
-                    if (configurator != null) {
-                        configurator.init(scriptEngine, modules);
-                    }
-                    if (!engineQ.offer(scriptEngine)) {
-                        log.error("Error adding script engine {}", new Object[]{scriptEngine.getFactory().getEngineName()});
-                    }
-
-                } catch (ScriptException se) {
-                    log.error("Error initializing script engine configurator {}", new Object[]{scriptEngineName});
-                    if (log.isDebugEnabled()) {
-                        log.error("Error initializing script engine configurator", se);
+                for (Future<ScriptEngine> engineFuture : engineFutures) {
+                    try {
+                        ScriptEngine scriptEngine = engineFuture.get();
+                        if (!enginePool.offer(scriptEngine)) {
+                            log.error("Error adding script engine {}", new Object[]{scriptEngine.getFactory().getEngineName()});
+                        }
+                    } catch (ExecutionException ee) {
+                        if (!(ee.getCause() instanceof ScriptException)) {
+                            throw new ProcessException(ee.getCause());
+                        }
+                        log.error("Error initializing script engine configurator {}", new Object[]{scriptEngineName});
+                        if (log.isDebugEnabled()) {
+                            log.error("Error initializing script engine configurator", ee.getCause());
+                        }
                     }
                 }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new ProcessException("Interrupted while setting up script engines", ie);
+            } finally {
+                engineSetupExecutor.shutdownNow();
             }
         } finally {
             // Restore original context class loader
@@ -283,6 +477,189 @@ public class ScriptingComponentHelper {
         }
     }
 
+    /**
+     * Makes the given script body the active script and compiles it once for each engine in the pool. Engines that
+     * do not implement {@link Compilable} (or whose configurator declines to compile) have no compiled script, and
+     * the caller should fall back to evaluating the active script body directly.
+     *
+     * @param scriptBody the body of the script to compile
+     * @param log a provided logger for error/info messages
+     */
+    public void compileScripts(String scriptBody, ComponentLog log) {
+        compiledScriptMap.clear();
+        activeScriptBody = scriptBody;
+        if (enginePool == null || scriptBody == null) {
+            return;
+        }
+        for (ScriptEngine scriptEngine : enginePool.getIdleEngines()) {
+            getCompiledScript(scriptEngine, log);
+        }
+    }
+
+    /**
+     * Returns the active script compiled for the given engine, compiling it first if the engine has not compiled
+     * it yet (because the engine is new, or the script has been reloaded). The caller must have exclusive use of
+     * the engine, such as by having acquired it from the pool.
+     *
+     * @param scriptEngine the engine to get the compiled script for
+     * @param log a provided logger for error/info messages
+     * @return the compiled script, or null if the engine cannot compile the active script
+     */
+    public CompiledScript getCompiledScript(ScriptEngine scriptEngine, ComponentLog log) {
+        final String scriptBody = activeScriptBody;
+        if (scriptBody == null) {
+            return null;
+        }
+        CompiledScriptEntry entry = compiledScriptMap.get(scriptEngine);
+        if (entry == null || entry.scriptBody != scriptBody) {
+            CompiledScript compiledScript = null;
+            // May run on a trigger thread (after a reload), so the module classes must be made visible as they are
+            // when engines are created
+            ClassLoader originalContextClassLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                if (engineClassLoader != null) {
+                    Thread.currentThread().setContextClassLoader(engineClassLoader);
+                }
+                compiledScript = compileScript(scriptEngine, scriptBody);
+            } catch (ScriptException | RuntimeException | LinkageError e) {
+                // Leave the engine uncompiled, the error will be reported when the script is evaluated
+                log.warn("Unable to compile script for engine {}, it will be evaluated on each trigger",
+                        new Object[]{scriptEngineName}, e);
+            } finally {
+                Thread.currentThread().setContextClassLoader(originalContextClassLoader);
+            }
+            entry = new CompiledScriptEntry(scriptBody, compiledScript);
+            compiledScriptMap.put(scriptEngine, entry);
+        }
+        return entry.compiledScript;
+    }
+
+    private CompiledScript compileScript(ScriptEngine scriptEngine, String scriptBody) throws ScriptException {
+        ScriptEngineConfigurator configurator = scriptEngineConfigurator;
+        if (configurator != null) {
+            return configurator.compile(scriptEngine, scriptBody, modules, compiledScriptCache);
+        } else if (scriptEngine instanceof Compilable) {
+            return ((Compilable) scriptEngine).compile(scriptBody);
+        }
+        return null;
+    }
+
+    /**
+     * Starts watching the script file (if one is set and reloading is enabled) so that changes to it are compiled
+     * in the background and replace the active script without stopping the processor.
+     *
+     * @param log a provided logger for error/info messages
+     */
+    public void startWatchingScriptFile(ComponentLog log) {
+        stopWatchingScriptFile(log);
+        if (!reloadScriptFile || scriptPath == null || scriptBody != null) {
+            return;
+        }
+        try {
+            scriptFileWatcher = new ScriptFileWatcher(Paths.get(scriptPath), activeScriptBody, newScriptBody -> reloadScript(newScriptBody, log), log);
+            scriptFileWatcher.start();
+        } catch (IOException ioe) {
+            log.error("Unable to watch script file {} for changes", new Object[]{scriptPath}, ioe);
+        }
+    }
+
+    private void stopWatchingScriptFile(ComponentLog log) {
+        if (scriptFileWatcher != null) {
+            try {
+                scriptFileWatcher.close();
+            } catch (IOException ioe) {
+                log.warn("Error closing script file watcher", ioe);
+            }
+            scriptFileWatcher = null;
+        }
+    }
+
+    /**
+     * Compiles the new script body on one of the pool's engines and, if it compiles, makes it the active script.
+     * Triggers in progress finish with the script they started with, and each other engine compiles the new script
+     * the next time it is used (which is cheap for engines whose configurators cache compiled scripts). A script
+     * that fails to compile does not replace the active script.
+     */
+    private void reloadScript(String newScriptBody, ComponentLog log) {
+        final ScriptEnginePool pool = enginePool;
+        if (pool == null) {
+            return;
+        }
+        final ScriptEngine scriptEngine;
+        try {
+            // Runs on the watcher thread, so it can wait for an engine to be released by a trigger
+            scriptEngine = pool.acquire(RELOAD_ENGINE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ScriptException se) {
+            log.error("Script file {} was changed but no script engine could be created to compile it, continuing with the previous script",
+                    new Object[]{scriptPath}, se);
+            return;
+        }
+        if (scriptEngine == null) {
+            log.error("Script file {} was changed but no script engine became available to compile it, continuing with the previous script",
+                    new Object[]{scriptPath});
+            return;
+        }
+        ScriptException compileFailure = null;
+        ClassLoader originalContextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            if (engineClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(engineClassLoader);
+            }
+            // The engine keeps the compiled script, so it doesn't compile it again once the script is active
+            compiledScriptMap.put(scriptEngine, new CompiledScriptEntry(newScriptBody, compileScript(scriptEngine, newScriptBody)));
+        } catch (ScriptException se) {
+            compileFailure = se;
+        } finally {
+            Thread.currentThread().setContextClassLoader(originalContextClassLoader);
+            pool.release(scriptEngine);
+        }
+        if (compileFailure != null) {
+            log.error("Script file {} was changed but does not compile, continuing with the previous script", new Object[]{scriptPath}, compileFailure);
+            return;
+        }
+        activeScriptBody = newScriptBody;
+        log.info("Reloaded script file {}", new Object[]{scriptPath});
+        for (Runnable listener : scriptReloadListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Creates and initializes an engine for the pool, with the module class loader as the context class loader. If
+     * a script is already active, it is compiled for the new engine as well.
+     *
+     * @param log a provided logger for error/info messages
+     * @return a new script engine
+     * @throws ScriptException if there is no engine for the selected script engine name, or the engine's
+     *                         configurator fails to initialize it
+     */
+    private ScriptEngine createPooledEngine(ComponentLog log) throws ScriptException {
+        ClassLoader originalContextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            if (engineClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(engineClassLoader);
+            }
+            ScriptEngine scriptEngine = createScriptEngine();
+            if (scriptEngine == null) {
+                throw new ScriptException("No script engine is available for " + scriptEngineName);
+            }
+            Bindings bindings = scriptEngine.getBindings(ScriptContext.ENGINE_SCOPE);
+            if (bindings == null) {
+                bindings = new SimpleBindings();
+                scriptEngine.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+            }
+            bindings.putAll(staticBindings);
+            ScriptEngineConfigurator configurator = scriptEngineConfigurator;
+            if (configurator != null) {
+                configurator.init(scriptEngine, modules);
+            }
+            getCompiledScript(scriptEngine, log);
+            return scriptEngine;
+        } finally {
+            Thread.currentThread().setContextClassLoader(originalContextClassLoader);
+        }
+    }
+
     public void setupVariables(ProcessContext context) {
         scriptEngineName = context.getProperty(SCRIPT_ENGINE).getValue();
         scriptPath = context.getProperty(ScriptingComponentUtils.SCRIPT_FILE).evaluateAttributeExpressions().getValue();
@@ -293,6 +670,15 @@ public class ScriptingComponentHelper {
         } else {
             modules = new String[0];
         }
+        persistModuleIndex = context.getProperty(ScriptingComponentUtils.PERSIST_MODULE_INDEX).asBoolean();
+        compiledScriptCacheDirectory = context.getProperty(ScriptingComponentUtils.COMPILED_SCRIPT_CACHE).evaluateAttributeExpressions().getValue();
+        warmUpIterations = context.getProperty(ScriptingComponentUtils.WARM_UP_ITERATIONS).asInteger();
+        batchSize = context.getProperty(ScriptingComponentUtils.BATCH_SIZE).asInteger();
+        minScriptEngines = context.getProperty(ScriptingComponentUtils.MIN_SCRIPT_ENGINES).asInteger();
+        maxScriptEngines = context.getProperty(ScriptingComponentUtils.MAX_SCRIPT_ENGINES).asInteger();
+        engineAcquisitionTimeoutMillis = context.getProperty(ScriptingComponentUtils.ENGINE_ACQUISITION_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+        engineIdleTimeoutMillis = context.getProperty(ScriptingComponentUtils.ENGINE_IDLE_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+        reloadScriptFile = context.getProperty(ScriptingComponentUtils.RELOAD_SCRIPT_FILE).asBoolean();
     }
 
     public void setupVariables(ConfigurationContext context) {
@@ -305,6 +691,15 @@ public class ScriptingComponentHelper {
         } else {
             modules = new String[0];
         }
+        persistModuleIndex = context.getProperty(ScriptingComponentUtils.PERSIST_MODULE_INDEX).asBoolean();
+        compiledScriptCacheDirectory = context.getProperty(ScriptingComponentUtils.COMPILED_SCRIPT_CACHE).evaluateAttributeExpressions().getValue();
+        warmUpIterations = context.getProperty(ScriptingComponentUtils.WARM_UP_ITERATIONS).asInteger();
+        batchSize = context.getProperty(ScriptingComponentUtils.BATCH_SIZE).asInteger();
+        minScriptEngines = context.getProperty(ScriptingComponentUtils.MIN_SCRIPT_ENGINES).asInteger();
+        maxScriptEngines = context.getProperty(ScriptingComponentUtils.MAX_SCRIPT_ENGINES).asInteger();
+        engineAcquisitionTimeoutMillis = context.getProperty(ScriptingComponentUtils.ENGINE_ACQUISITION_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+        engineIdleTimeoutMillis = context.getProperty(ScriptingComponentUtils.ENGINE_IDLE_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+        reloadScriptFile = context.getProperty(ScriptingComponentUtils.RELOAD_SCRIPT_FILE).asBoolean();
     }
 
     /**
@@ -324,9 +719,26 @@ public class ScriptingComponentHelper {
         return factory.getScriptEngine();
     }
 
-    public void stop() {
-        if (engineQ != null) {
-            engineQ.clear();
+    public void stop(ComponentLog log) {
+        stopWatchingScriptFile(log);
+        if (enginePool != null) {
+            enginePool.close();
+        }
+        compiledScriptMap.clear();
+        activeScriptBody = null;
+    }
+
+    /**
+     * A script compiled for an engine, along with the script body it was compiled from. The compiled script is
+     * null if the engine could not compile the script body.
+     */
+    private static class CompiledScriptEntry {
+        private final String scriptBody;
+        private final CompiledScript compiledScript;
+
+        CompiledScriptEntry(String scriptBody, CompiledScript compiledScript) {
+            this.scriptBody = scriptBody;
+            this.compiledScript = compiledScript;
         }
     }
 }
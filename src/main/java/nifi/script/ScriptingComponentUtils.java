@@ -21,6 +21,10 @@ import org.apache.nifi.components.Validator;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.util.StandardValidators;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * Utility methods and constants used by the scripting components.
  */
@@ -63,5 +67,130 @@ public class ScriptingComponentUtils {
             .expressionLanguageSupported(true)
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
-}
 
+    /** A property descriptor for persisting the module JAR index alongside the module JARs */
+    public static final PropertyDescriptor PERSIST_MODULE_INDEX = new PropertyDescriptor.Builder()
+            .name("Persist Module Index")
+            .description("Whether to store the index of the entries in module JARs (in a " + IndexedModuleClassLoader.INDEX_FILE_NAME
+                    + " file in each directory containing module JARs), so that unchanged JARs are not scanned again the next time "
+                    + "the modules are loaded. The index is only written if the directory is writable.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .expressionLanguageSupported(false)
+            .build();
+
+    /** A property descriptor for specifying a directory in which compiled scripts are cached across runs */
+    public static final PropertyDescriptor COMPILED_SCRIPT_CACHE = new PropertyDescriptor.Builder()
+            .name("Compiled Script Cache Directory")
+            .description("Path to a directory in which compiled scripts are stored, so that later runs of an unchanged script "
+                    + "(with the same engine version and modules) can skip compilation. If not set, scripts are compiled on every run.")
+            .required(false)
+            .expressionLanguageSupported(true)
+            .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+            .build();
+
+    /** A property descriptor for specifying how many times each engine evaluates the script before processing flow files */
+    public static final PropertyDescriptor WARM_UP_ITERATIONS = new PropertyDescriptor.Builder()
+            .name("Warm-up Iterations")
+            .description("The number of times each script engine evaluates the script against a session with no flow files when the "
+                    + "processor is scheduled, so the JIT has compiled hot paths before real flow files arrive. The script should "
+                    + "tolerate session.get() returning nothing.")
+            .required(true)
+            .defaultValue("0")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** A property descriptor for specifying how many flow files the script is given per evaluation */
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+            .name("Batch Size")
+            .description("If greater than 0, up to this many flow files are taken from the queue (with session.get) before the script is "
+                    + "evaluated, and bound to the script as a list named flowFiles. The script is evaluated and the session committed "
+                    + "once per batch rather than once per flow file, and the script must transfer or remove every flow file in the "
+                    + "list. The script is not evaluated when the queue is empty. If 0, the script gets its own flow files from the session.")
+            .required(true)
+            .defaultValue("0")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** A property descriptor for specifying the number of script engines to create up front and keep when idle */
+    public static final PropertyDescriptor MIN_SCRIPT_ENGINES = new PropertyDescriptor.Builder()
+            .name("Minimum Script Engines")
+            .description("The number of script engines created when the processor is scheduled, and kept even when idle. "
+                    + "If not set, this is the same as the maximum number of script engines.")
+            .required(false)
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** A property descriptor for specifying the maximum number of script engines */
+    public static final PropertyDescriptor MAX_SCRIPT_ENGINES = new PropertyDescriptor.Builder()
+            .name("Maximum Script Engines")
+            .description("The maximum number of script engines, which are created as needed beyond the minimum. "
+                    + "If not set, this is the maximum number of concurrent tasks.")
+            .required(false)
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .build();
+
+    /** A property descriptor for specifying how long a task waits for a script engine to become available */
+    public static final PropertyDescriptor ENGINE_ACQUISITION_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("Script Engine Acquisition Timeout")
+            .description("How long a task waits for a script engine to become available before giving up on the trigger.")
+            .required(true)
+            .defaultValue("0 sec")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    /** A property descriptor for specifying how long a script engine above the minimum may be idle before it is discarded */
+    public static final PropertyDescriptor ENGINE_IDLE_TIMEOUT = new PropertyDescriptor.Builder()
+            .name("Script Engine Idle Timeout")
+            .description("How long a script engine beyond the minimum number of script engines may be idle before it is discarded.")
+            .required(true)
+            .defaultValue("5 mins")
+            .expressionLanguageSupported(false)
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .build();
+
+    /** A property descriptor for specifying whether changes to the script file are picked up while running */
+    public static final PropertyDescriptor RELOAD_SCRIPT_FILE = new PropertyDescriptor.Builder()
+            .name("Reload Script File On Change")
+            .description("Whether to watch the Script File for changes while the processor is running. A changed script is "
+                    + "compiled in the background and, if it compiles, replaces the running script without restarting the processor.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .expressionLanguageSupported(false)
+            .build();
+
+    /**
+     * Computes a SHA-256 digest over the given parts, suitable as a cache key for compiled scripts.
+     *
+     * @param parts the strings (script body, imports, versions, e.g.) that identify a compiled script
+     * @return the digest as a lowercase hex string
+     */
+    public static String sha256(String... parts) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(nsae);
+        }
+        for (String part : parts) {
+            if (part != null) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+            // Separate the parts so that ("ab", "c") and ("a", "bc") hash differently
+            digest.update((byte) 0);
+        }
+        final StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics for the phases of ExecuteScript's triggers: the time spent acquiring an engine, binding the session (and in
+ * batch mode, getting the batch of flow files, and looking up the compiled script), evaluating the script, committing
+ * the session and (after a failure) rolling it back, each in a {@link LatencyHistogram}, and the number of triggers
+ * that succeeded, failed and were rolled back, and that were skipped (with no engine available, or in batch mode, no
+ * flow files to process).
+ * Recording a phase is a call to System.nanoTime and a histogram update, so the metrics can be left on while
+ * benchmarking.
+ * <p>
+ * The metrics can be registered as MBeans, to be watched with a JMX client such as JConsole while a script runs:
+ * nifi.script:type=ExecuteScript,name=&lt;name&gt; for the counts, and
+ * nifi.script:type=ExecuteScript,name=&lt;name&gt;,phase=&lt;phase&gt; for each phase.
+ */
+public class TriggerMetrics implements TriggerMetricsMBean {
+
+    /**
+     * The phases of a trigger, in the order they run
+     */
+    public enum Phase {
+        ENGINE_ACQUISITION("Engine acquisition"),
+        BINDINGS("Bindings"),
+        EVALUATION("Evaluation"),
+        COMMIT("Commit"),
+        ROLLBACK("Rollback");
+
+        private final String displayName;
+
+        Phase(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+    private final LongAdder triggers = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder skips = new LongAdder();
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+
+    public TriggerMetrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records the time spent in a phase
+     *
+     * @param phase      the phase
+     * @param phaseStart the value of System.nanoTime when the phase started
+     * @return the value of System.nanoTime when the phase ended, for the start of the next phase
+     */
+    long record(Phase phase, long phaseStart) {
+        final long now = System.nanoTime();
+        phases.get(phase).record(now - phaseStart);
+        return now;
+    }
+
+    void recordTrigger() {
+        triggers.increment();
+    }
+
+    void recordSuccess() {
+        successes.increment();
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    void recordRollback() {
+        rollbacks.increment();
+    }
+
+    void recordSkip() {
+        skips.increment();
+    }
+
+    /**
+     * @return the histogram of the time spent in the given phase, in nanoseconds
+     */
+    public LatencyHistogram getPhase(Phase phase) {
+        return phases.get(phase);
+    }
+
+    @Override
+    public long getTriggers() {
+        return triggers.sum();
+    }
+
+    @Override
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    @Override
+    public long getSkips() {
+        return skips.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : phases.values()) {
+            histogram.reset();
+        }
+        triggers.reset();
+        successes.reset();
+        failures.reset();
+        rollbacks.reset();
+        skips.reset();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server
+     *
+     * @param name the name to register them under, such as the processor's identifier
+     * @throws JMException if they cannot be registered
+     */
+    public synchronized void registerMBeans(String name) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final String quotedName = ObjectName.quote(name);
+        register(server, new ObjectName("nifi.script:type=ExecuteScript,name=" + quotedName), new StandardMBean(this, TriggerMetricsMBean.class));
+        for (Map.Entry<Phase, LatencyHistogram> phase : phases.entrySet()) {
+            register(server, new ObjectName("nifi.script:type=ExecuteScript,name=" + quotedName + ",phase=" + phase.getKey().name().toLowerCase()),
+                    new StandardMBean(new PhaseMetrics(phase.getValue()), PhaseMetricsMBean.class));
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName objectName, Object mbean) throws JMException {
+        server.registerMBean(mbean, objectName);
+        registeredNames.add(objectName);
+    }
+
+    /**
+     * Unregisters any MBeans registered by {@link #registerMBeans}
+     */
+    public synchronized void unregisterMBeans() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registeredNames) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException ignored) {
+                // Already unregistered
+            }
+        }
+        registeredNames.clear();
+    }
+
+    /**
+     * The management interface for one phase
+     */
+    public interface PhaseMetricsMBean {
+        long getCount();
+
+        double getMeanNanos();
+
+        long getMedianNanos();
+
+        long getP99Nanos();
+
+        long getMaxNanos();
+    }
+
+    private static class PhaseMetrics implements PhaseMetricsMBean {
+        private final LatencyHistogram histogram;
+
+        PhaseMetrics(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        @Override
+        public double getMeanNanos() {
+            return histogram.getMean();
+        }
+
+        @Override
+        public long getMedianNanos() {
+            return histogram.getPercentile(50);
+        }
+
+        @Override
+        public long getP99Nanos() {
+            return histogram.getPercentile(99);
+        }
+
+        @Override
+        public long getMaxNanos() {
+            return histogram.getMax();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records how long the trigger that transferred each flow file took, from the creation of its session to the
+ * commit. Sessions are wrapped with {@link #wrap(ProcessSession)} (see
+ * {@link AccessibleExecuteScript#setSessionDecorator}); flow files transferred in a session that is rolled back are
+ * not recorded.
+ */
+public class TriggerTimings {
+
+    private final Map<Long, Long> triggerNanos = new ConcurrentHashMap<>();
+
+    public ProcessSession wrap(final ProcessSession session) {
+        final long start = System.nanoTime();
+        final List<Long> transferred = new ArrayList<>();
+        return (ProcessSession) Proxy.newProxyInstance(ProcessSession.class.getClassLoader(), new Class<?>[]{ProcessSession.class},
+                (proxy, method, args) -> {
+                    final Object result;
+                    try {
+                        result = method.invoke(session, args);
+                    } catch (InvocationTargetException ite) {
+                        throw ite.getCause();
+                    }
+                    if ("transfer".equals(method.getName())) {
+                        if (args[0] instanceof FlowFile) {
+                            transferred.add(((FlowFile) args[0]).getId());
+                        } else {
+                            for (Object flowFile : (Collection<?>) args[0]) {
+                                transferred.add(((FlowFile) flowFile).getId());
+                            }
+                        }
+                    } else if ("commit".equals(method.getName())) {
+                        final long nanos = System.nanoTime() - start;
+                        for (Long id : transferred) {
+                            triggerNanos.put(id, nanos);
+                        }
+                        transferred.clear();
+                    } else if ("rollback".equals(method.getName())) {
+                        transferred.clear();
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * @return the duration in nanoseconds of the trigger that transferred the given flow file, or -1 if not known
+     */
+    public long getTriggerNanos(FlowFile flowFile) {
+        final Long nanos = triggerNanos.get(flowFile.getId());
+        return nanos == null ? -1 : nanos;
+    }
+
+    public void clear() {
+        triggerNanos.clear();
+    }
+}
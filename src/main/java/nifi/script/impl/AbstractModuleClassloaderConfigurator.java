@@ -17,6 +17,7 @@
 package nifi.script.impl;
 
 import org.apache.nifi.logging.ComponentLog;
+import nifi.script.ModuleClasspathCache;
 import nifi.script.ScriptEngineConfigurator;
 
 import java.io.File;
@@ -36,13 +37,18 @@ public abstract class AbstractModuleClassloaderConfigurator implements ScriptEng
      * of returned module URLs, and if a directory is specified, it is scanned for JAR files (files ending with .jar).
      * Any JAR files found are added to the list of module URLs. This is a convenience method for adding directories
      * full of JAR files to an ExecuteScript or InvokeScriptedProcessor instance, rather than having to enumerate each
-     * JAR's URL.
+     * JAR's URL. The result is cached (see {@link ModuleClasspathCache}), so unchanged module paths are only scanned
+     * once per JVM.
      * @param modulePaths An array of module paths to scan/add
      * @param log A logger for the calling component, to provide feedback for missing files, e.g.
      * @return An array of URLs corresponding to all modules determined from the input set of module paths.
      */
     @Override
     public URL[] getModuleURLsForClasspath(String[] modulePaths, ComponentLog log) {
+        return ModuleClasspathCache.getModuleURLs(modulePaths, () -> scanModulePaths(modulePaths, log));
+    }
+
+    private static URL[] scanModulePaths(String[] modulePaths, ComponentLog log) {
         List<URL> additionalClasspath = new LinkedList<>();
         if (modulePaths != null) {
             for (String modulePathString : modulePaths) {
@@ -16,41 +16,225 @@
  */
 package nifi.script.impl;
 
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovyShell;
+import groovy.lang.GroovySystem;
+import groovy.lang.Script;
+import nifi.script.CompiledScriptCache;
+import nifi.script.ScriptingComponentUtils;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.customizers.ImportCustomizer;
+import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.tools.GroovyClass;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public class GroovyScriptEngineConfigurator extends AbstractModuleClassloaderConfigurator {
 
-    private static final String PRELOADS =
-            "import org.apache.nifi.components.*\n"
-                    + "import org.apache.nifi.flowfile.FlowFile\n"
-                    + "import org.apache.nifi.processor.*\n"
-                    + "import org.apache.nifi.processor.exception.*\n"
-                    + "import org.apache.nifi.processor.io.*\n"
-                    + "import org.apache.nifi.processor.util.*\n"
-                    + "import org.apache.nifi.processors.script.*\n"
-                    + "import org.apache.nifi.logging.ComponentLog\n"
-                    + "import org.apache.nifi.script.*\n"
-                    + "import org.apache.nifi.lookup.*\n";
+    // Packages and classes imported by default into every script
+    private static final String[] PRELOAD_PACKAGES = {
+            "org.apache.nifi.components",
+            "org.apache.nifi.processor",
+            "org.apache.nifi.processor.exception",
+            "org.apache.nifi.processor.io",
+            "org.apache.nifi.processor.util",
+            "org.apache.nifi.processors.script",
+            "org.apache.nifi.script",
+            "org.apache.nifi.lookup"};
+
+    private static final String[] PRELOAD_CLASSES = {
+            "org.apache.nifi.flowfile.FlowFile",
+            "org.apache.nifi.logging.ComponentLog"};
+
+    private static final String PRELOADS = String.join(",", PRELOAD_PACKAGES) + ";" + String.join(",", PRELOAD_CLASSES);
+
+    // The maximum number of compiled script classes to keep per class loader, so a long run with changing scripts
+    // doesn't grow without bound
+    private static final int MAX_CACHED_SCRIPT_CLASSES = 64;
 
-    private ScriptEngine scriptEngine;
+    // Compiled script classes keyed by the class loader they were compiled against, then by a hash of the script
+    // body. Shared by all engines, so each distinct script is compiled once rather than once per engine. A script
+    // class refers back to its class loader, so both the loaders and the classes are only weakly referenced: the
+    // compiled scripts of a scheduled processor keep its classes, and once it is stopped, its (module) class loader
+    // can be collected
+    private static final Map<ClassLoader, Map<String, WeakReference<Class<? extends Script>>>> scriptClassCache = new WeakHashMap<>();
 
     @Override
     public String getScriptEngineName() {
         return "Groovy";
     }
 
-
-
     @Override
     public Object init(ScriptEngine engine, String[] modulePaths) throws ScriptException {
-        scriptEngine = engine;
-        return scriptEngine;
+        return engine;
     }
 
     @Override
     public Object eval(ScriptEngine engine, String scriptBody, String[] modulePaths) throws ScriptException {
-        scriptEngine = engine;
-        return engine.eval(PRELOADS + scriptBody);
+        return compile(engine, scriptBody, modulePaths, null).eval(engine.getContext());
+    }
+
+    @Override
+    public CompiledScript compile(ScriptEngine engine, String scriptBody, String[] modulePaths, CompiledScriptCache cache) throws ScriptException {
+        return new GroovyCompiledScript(engine, getScriptClass(getParentClassLoader(engine), scriptBody, cache));
+    }
+
+    /**
+     * Forgets the script classes compiled so far, so the next compilation of each script goes to the on-disk cache
+     * (if any) or the compiler again
+     */
+    static void clearScriptClassCache() {
+        synchronized (scriptClassCache) {
+            scriptClassCache.clear();
+        }
+    }
+
+    /**
+     * Returns the class loader scripts should be compiled against. The engine's own GroovyClassLoader is created
+     * with the module class loader as its parent, so that parent is used (rather than the per-engine loader) so
+     * that all engines for the same set of modules share compiled classes.
+     */
+    private static ClassLoader getParentClassLoader(ScriptEngine engine) {
+        if (engine instanceof GroovyScriptEngineImpl) {
+            return ((GroovyScriptEngineImpl) engine).getClassLoader().getParent();
+        }
+        return Thread.currentThread().getContextClassLoader();
+    }
+
+    private static Class<? extends Script> getScriptClass(ClassLoader parent, String scriptBody, CompiledScriptCache cache) throws ScriptException {
+        final String hash = ScriptingComponentUtils.sha256(scriptBody, PRELOADS);
+        Class<? extends Script> scriptClass = getCachedScriptClass(parent, hash);
+        if (scriptClass == null) {
+            CompilerConfiguration compilerConfiguration = new CompilerConfiguration();
+            compilerConfiguration.addCompilationCustomizers(new ImportCustomizer()
+                    .addStarImports(PRELOAD_PACKAGES)
+                    .addImports(PRELOAD_CLASSES));
+            GroovyClassLoader loader = new GroovyClassLoader(parent, compilerConfiguration);
+            String className = "Script" + hash.substring(0, 16);
+            try {
+                if (cache != null) {
+                    scriptClass = loadScriptClass(loader, className, scriptBody, compilerConfiguration, cache);
+                } else {
+                    GroovyCodeSource codeSource = new GroovyCodeSource(scriptBody, className + ".groovy", GroovyShell.DEFAULT_CODE_BASE);
+                    Class<?> parsedClass = loader.parseClass(codeSource, false);
+                    scriptClass = parsedClass.asSubclass(Script.class);
+                }
+            } catch (CompilationFailedException | ClassCastException cfe) {
+                throw new ScriptException(cfe);
+            }
+            putCachedScriptClass(parent, hash, scriptClass);
+        }
+        return scriptClass;
+    }
+
+    /**
+     * @return the script class compiled against the given class loader, or null if there is none (or it has been
+     * collected)
+     */
+    private static Class<? extends Script> getCachedScriptClass(ClassLoader parent, String hash) {
+        synchronized (scriptClassCache) {
+            final Map<String, WeakReference<Class<? extends Script>>> scriptClasses = scriptClassCache.get(parent);
+            final WeakReference<Class<? extends Script>> scriptClass = scriptClasses == null ? null : scriptClasses.get(hash);
+            return scriptClass == null ? null : scriptClass.get();
+        }
+    }
+
+    private static void putCachedScriptClass(ClassLoader parent, String hash, Class<? extends Script> scriptClass) {
+        synchronized (scriptClassCache) {
+            scriptClassCache.computeIfAbsent(parent, k -> new LinkedHashMap<String, WeakReference<Class<? extends Script>>>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, WeakReference<Class<? extends Script>>> eldest) {
+                    return size() > MAX_CACHED_SCRIPT_CLASSES;
+                }
+            }).put(hash, new WeakReference<>(scriptClass));
+        }
+    }
+
+    /**
+     * Loads the script class from the on-disk cache, compiling the script and storing its classes (the script
+     * class plus any closure and inner classes) on a cache miss.
+     */
+    private static Class<? extends Script> loadScriptClass(GroovyClassLoader loader, String className, String scriptBody,
+                                                           CompilerConfiguration compilerConfiguration, CompiledScriptCache cache) throws ScriptException {
+        final String key = cache.key(scriptBody, PRELOADS, GroovySystem.getVersion());
+        Map<String, byte[]> classes;
+        try {
+            classes = cache.load(key);
+        } catch (IOException ioe) {
+            // The cache is only an optimization, so an unreadable entry is treated as a miss
+            classes = null;
+        }
+        if (classes == null) {
+            CompilationUnit compilationUnit = new CompilationUnit(compilerConfiguration, null, loader);
+            compilationUnit.addSource(className + ".groovy", scriptBody);
+            compilationUnit.compile(Phases.CLASS_GENERATION);
+            classes = new LinkedHashMap<>();
+            for (Object compiledClass : compilationUnit.getClasses()) {
+                GroovyClass groovyClass = (GroovyClass) compiledClass;
+                classes.put(groovyClass.getName(), groovyClass.getBytes());
+            }
+            try {
+                cache.store(key, classes);
+            } catch (IOException ioe) {
+                // Not being able to store the classes only means the next run compiles the script again
+            }
+        }
+        Class<?> scriptClass = null;
+        for (Map.Entry<String, byte[]> compiledClass : classes.entrySet()) {
+            Class<?> definedClass = loader.defineClass(compiledClass.getKey(), compiledClass.getValue());
+            if (className.equals(compiledClass.getKey())) {
+                scriptClass = definedClass;
+            }
+        }
+        if (scriptClass == null) {
+            throw new ScriptException("No script class " + className + " found among compiled classes " + classes.keySet());
+        }
+        return scriptClass.asSubclass(Script.class);
+    }
+
+    /**
+     * A compiled Groovy script. Each evaluation creates a new (cheap) Script instance from the cached class, bound to
+     * the engine-scope bindings of the given context.
+     */
+    private static class GroovyCompiledScript extends CompiledScript {
+
+        private final ScriptEngine engine;
+        private final Class<? extends Script> scriptClass;
+
+        GroovyCompiledScript(ScriptEngine engine, Class<? extends Script> scriptClass) {
+            this.engine = engine;
+            this.scriptClass = scriptClass;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            Script script = InvokerHelper.createScript(scriptClass, new Binding(context.getBindings(ScriptContext.ENGINE_SCOPE)));
+            try {
+                return script.run();
+            } catch (Exception e) {
+                throw new ScriptException(e);
+            }
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
     }
 }
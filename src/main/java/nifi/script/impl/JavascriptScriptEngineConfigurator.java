@@ -16,6 +16,10 @@
  */
 package nifi.script.impl;
 
+import nifi.script.CompiledScriptCache;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
@@ -39,4 +43,13 @@ public class JavascriptScriptEngineConfigurator extends AbstractModuleClassloade
     public Object eval(ScriptEngine engine, String scriptBody, String[] modulePaths) throws ScriptException {
         return engine.eval(scriptBody);
     }
+
+    @Override
+    public CompiledScript compile(ScriptEngine engine, String scriptBody, String[] modulePaths, CompiledScriptCache cache) throws ScriptException {
+        // Nashorn keeps no compiled form that can be stored, so the cache is not used
+        if (!(engine instanceof Compilable)) {
+            return null;
+        }
+        return ((Compilable) engine).compile(scriptBody);
+    }
 }
@@ -16,18 +16,61 @@
  */
 package nifi.script.impl;
 
+import nifi.script.CompiledScriptCache;
+import nifi.script.ScriptingComponentUtils;
 import org.apache.nifi.logging.ComponentLog;
 import nifi.script.ScriptEngineConfigurator;
+import org.python.Version;
+import org.python.core.BytecodeLoader;
+import org.python.core.CompileMode;
+import org.python.core.CompilerFlags;
+import org.python.core.Py;
+import org.python.core.PyCode;
+import org.python.core.PyException;
+import org.python.core.PyString;
+import org.python.core.PyStringMap;
+import org.python.core.PySystemState;
+import org.python.core.imp;
 
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * A helper class to configure the Jython engine with any specific requirements
  */
 public class JythonScriptEngineConfigurator implements ScriptEngineConfigurator {
 
+    // The file name reported in tracebacks and stack frames for the script body
+    private static final String SCRIPT_FILENAME = "<script>";
+
+    // The module name the script body is compiled as when stored in a compiled script cache
+    private static final String SCRIPT_MODULE_NAME = "script";
+
+    // The maximum number of compiled scripts to keep, so a long run with changing scripts doesn't grow without bound
+    private static final int MAX_CACHED_SCRIPTS = 64;
+
+    // Compiled script bodies keyed by a hash of the script. PyCode is independent of the interpreter, so it is
+    // shared by all engines
+    private static final Map<String, PyCode> scriptCodeCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, PyCode>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PyCode> eldest) {
+                    return size() > MAX_CACHED_SCRIPTS;
+                }
+            });
+
     @Override
     public String getScriptEngineName() {
         return "python";
@@ -35,12 +78,23 @@ public class JythonScriptEngineConfigurator implements ScriptEngineConfigurator
 
     @Override
     public URL[] getModuleURLsForClasspath(String[] modulePaths, ComponentLog log) {
-        // We don't need to add the module paths to the classpath, they will be added via sys.path.append
+        // We don't need to add the module paths to the classpath, they will be added to sys.path in init()
         return new URL[0];
     }
 
     @Override
     public Object init(ScriptEngine engine, String[] modulePaths) throws ScriptException {
+        if (engine != null && modulePaths != null) {
+            // Need to add the module path to the engine's sys.path, in order to pick up other Python/Jython modules.
+            // This is done once per engine, and paths already present are skipped
+            PySystemState systemState = getSystemState(engine);
+            for (String modulePath : modulePaths) {
+                PyString path = Py.newString(modulePath);
+                if (!systemState.path.__contains__(path)) {
+                    systemState.path.append(path);
+                }
+            }
+        }
         return null;
     }
 
@@ -48,16 +102,139 @@ public class JythonScriptEngineConfigurator implements ScriptEngineConfigurator
     public Object eval(ScriptEngine engine, String scriptBody, String[] modulePaths) throws ScriptException {
         Object returnValue = null;
         if (engine != null) {
-            // Need to import the module path inside the engine, in order to pick up
-            // other Python/Jython modules
-            engine.eval("import sys");
-            if (modulePaths != null) {
-                for (String modulePath : modulePaths) {
-                    engine.eval("sys.path.append('" + modulePath + "')");
+            returnValue = compile(engine, scriptBody, modulePaths, null).eval(engine.getContext());
+        }
+        return returnValue;
+    }
+
+    @Override
+    public CompiledScript compile(ScriptEngine engine, String scriptBody, String[] modulePaths, CompiledScriptCache cache) throws ScriptException {
+        final String hash = ScriptingComponentUtils.sha256(scriptBody);
+        PyCode code = scriptCodeCache.get(hash);
+        if (code == null) {
+            try {
+                code = cache != null
+                        ? loadScriptCode(scriptBody, cache)
+                        : Py.compile_flags(scriptBody, SCRIPT_FILENAME, CompileMode.exec, new CompilerFlags());
+            } catch (PyException pe) {
+                throw toScriptException(pe);
+            }
+            scriptCodeCache.put(hash, code);
+        }
+        return new JythonCompiledScript(engine, getSystemState(engine), code);
+    }
+
+    /**
+     * Forgets the scripts compiled so far, so the next compilation of each script goes to the on-disk cache (if any)
+     * or the compiler again
+     */
+    static void clearScriptCodeCache() {
+        scriptCodeCache.clear();
+    }
+
+    /**
+     * Loads the script's code from the $py.class bytes in the on-disk cache, compiling the script and storing the
+     * class bytes on a cache miss.
+     */
+    private static PyCode loadScriptCode(String scriptBody, CompiledScriptCache cache) {
+        final String className = SCRIPT_MODULE_NAME + "$py";
+        final String key = cache.key(scriptBody, Version.PY_VERSION);
+        byte[] classBytes = null;
+        try {
+            Map<String, byte[]> classes = cache.load(key);
+            if (classes != null) {
+                classBytes = classes.get(className);
+            }
+        } catch (IOException ioe) {
+            // The cache is only an optimization, so an unreadable entry is treated as a miss
+        }
+        if (classBytes == null) {
+            classBytes = imp.compileSource(SCRIPT_MODULE_NAME, new ByteArrayInputStream(scriptBody.getBytes(StandardCharsets.UTF_8)), SCRIPT_FILENAME);
+            try {
+                cache.store(key, Collections.singletonMap(className, classBytes));
+            } catch (IOException ioe) {
+                // Not being able to store the class only means the next run compiles the script again
+            }
+        }
+        return BytecodeLoader.makeCode(className, classBytes, SCRIPT_FILENAME);
+    }
+
+    /**
+     * Returns the PySystemState (the "sys" module) used by the given engine
+     */
+    private static PySystemState getSystemState(ScriptEngine engine) throws ScriptException {
+        engine.eval("import sys");
+        Object sys = engine.eval("sys");
+        return sys instanceof PySystemState ? (PySystemState) sys : Py.getSystemState();
+    }
+
+    private static ScriptException toScriptException(PyException pe) {
+        ScriptException se = new ScriptException(pe.toString());
+        se.initCause(pe);
+        return se;
+    }
+
+    /**
+     * A compiled Jython script. Each evaluation runs the precompiled code against the engine's system state, with
+     * the engine-scope bindings of the given context as the script's variables. The variables are converted once,
+     * on the first evaluation: the other bindings don't change between triggers (they are bound once per engine), so
+     * later evaluations only rebind the per-trigger variables. As with the engine's own namespace, variables the
+     * script sets itself are kept between evaluations.
+     */
+    private static class JythonCompiledScript extends CompiledScript {
+
+        // The variables ExecuteScript binds for each trigger
+        private static final String[] TRIGGER_VARIABLES = {"session", "flowFiles"};
+
+        private final ScriptEngine engine;
+        private final PySystemState systemState;
+        private final PyCode code;
+
+        // The script's variables, and the bindings they were converted from. Only used by the thread holding the engine
+        private PyStringMap locals;
+        private Bindings localsBindings;
+
+        JythonCompiledScript(ScriptEngine engine, PySystemState systemState, PyCode code) {
+            this.engine = engine;
+            this.systemState = systemState;
+            this.code = code;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            return eval(context.getBindings(ScriptContext.ENGINE_SCOPE));
+        }
+
+        @Override
+        public Object eval(Bindings bindings) throws ScriptException {
+            if (locals == null || bindings != localsBindings) {
+                locals = new PyStringMap();
+                locals.__setitem__("__name__", Py.newString("__main__"));
+                for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+                    locals.__setitem__(binding.getKey(), Py.java2py(binding.getValue()));
                 }
+                localsBindings = bindings;
+            } else {
+                for (String variable : TRIGGER_VARIABLES) {
+                    Object value = bindings.get(variable);
+                    if (value != null) {
+                        locals.__setitem__(variable, Py.java2py(value));
+                    }
+                }
+            }
+            PySystemState previousSystemState = Py.setSystemState(systemState);
+            try {
+                return Py.runCode(code, locals, locals).__tojava__(Object.class);
+            } catch (PyException pe) {
+                throw toScriptException(pe);
+            } finally {
+                Py.setSystemState(previousSystemState);
             }
-            returnValue = engine.eval(scriptBody);
         }
-        return returnValue;
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
     }
 }
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import groovy.json.JsonSlurper;
+import nifi.script.ExecuteScript;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the NdjsonWriter class
+ */
+public class NdjsonWriterTest {
+
+    // Quotes, backslashes, whitespace escapes, a control character, and two- and three-byte and supplementary characters
+    private static final String AWKWARD = "\"quoted\" back\\slash\n\r\t\u0001 caf\u00e9 \u20ac \ud83d\ude00";
+
+    private TestRunner runner;
+    private ByteArrayOutputStream output;
+
+    @Before
+    public void setUp() {
+        runner = TestRunners.newTestRunner(ExecuteScript.class);
+        output = new ByteArrayOutputStream();
+    }
+
+    @Test
+    public void testAttributesAndContentAreEscaped() throws Exception {
+        final Map<String, String> attributes = new LinkedHashMap<>();
+        attributes.put("awkward", AWKWARD);
+        attributes.put("key \"with\" quotes", "value");
+        final MockFlowFile flowFile = runner.enqueue(AWKWARD.getBytes(StandardCharsets.UTF_8), attributes);
+
+        final Map<?, ?> result = writeAndParse(new NdjsonWriter(output, null, true, false, -1), flowFile, 1234);
+        assertEquals("success", result.get("relationship"));
+        assertEquals(flowFile.getId(), ((Number) result.get("id")).longValue());
+        assertEquals(flowFile.getSize(), ((Number) result.get("size")).longValue());
+        assertEquals(flowFile.getEntryDate(), ((Number) result.get("entryDate")).longValue());
+        assertEquals(1234L, ((Number) result.get("triggerNanos")).longValue());
+        final Map<?, ?> resultAttributes = (Map<?, ?>) result.get("attributes");
+        assertEquals(AWKWARD, resultAttributes.get("awkward"));
+        assertEquals("value", resultAttributes.get("key \"with\" quotes"));
+        assertEquals(AWKWARD, result.get("content"));
+        assertEquals(false, result.get("contentTruncated"));
+    }
+
+    @Test
+    public void testContentIsTruncatedToLimit() throws Exception {
+        final MockFlowFile flowFile = runner.enqueue("Hello World!".getBytes(StandardCharsets.UTF_8));
+        final Map<?, ?> result = writeAndParse(new NdjsonWriter(output, null, true, false, 5), flowFile, -1);
+        assertEquals(12, ((Number) result.get("size")).intValue());
+        assertEquals("Hello", result.get("content"));
+        assertEquals(true, result.get("contentTruncated"));
+        // The trigger duration is left out when it isn't known
+        assertFalse(result.containsKey("triggerNanos"));
+    }
+
+    @Test
+    public void testBase64Content() throws Exception {
+        final byte[] content = {0, 1, 2, (byte) 0xff, (byte) 0xfe, 'a'};
+        final MockFlowFile flowFile = runner.enqueue(content);
+        final Map<?, ?> result = writeAndParse(new NdjsonWriter(output, null, true, true, 4), flowFile, -1);
+        assertEquals(Base64.getEncoder().encodeToString(new byte[]{0, 1, 2, (byte) 0xff}), result.get("content"));
+        assertEquals(true, result.get("contentTruncated"));
+    }
+
+    @Test
+    public void testContentLeftOutUnlessRequested() throws Exception {
+        final MockFlowFile flowFile = runner.enqueue("Hello World!".getBytes(StandardCharsets.UTF_8));
+        final Map<?, ?> result = writeAndParse(new NdjsonWriter(output, null, false, false, -1), flowFile, -1);
+        assertFalse(result.containsKey("content"));
+        assertFalse(result.containsKey("contentTruncated"));
+    }
+
+    @Test
+    public void testOneLinePerFlowFile() throws Exception {
+        final NdjsonWriter writer = new NdjsonWriter(output, null, true, false, -1);
+        writer.write(runner.enqueue("first\nline".getBytes(StandardCharsets.UTF_8)), "success", -1);
+        writer.write(runner.enqueue("second".getBytes(StandardCharsets.UTF_8)), "failure", -1);
+        writer.close();
+        final String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("first\nline", ((Map<?, ?>) new JsonSlurper().parseText(lines[0])).get("content"));
+        assertEquals("failure", ((Map<?, ?>) new JsonSlurper().parseText(lines[1])).get("relationship"));
+    }
+
+    /**
+     * Writes the flow file as a line transferred to success, and parses it back
+     */
+    private Map<?, ?> writeAndParse(NdjsonWriter writer, MockFlowFile flowFile, long triggerNanos) throws Exception {
+        writer.write(flowFile, "success", triggerNanos);
+        writer.close();
+        final String line = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(line.endsWith("\n"));
+        assertEquals(line.length() - 1, line.indexOf('\n'));
+        return (Map<?, ?>) new JsonSlurper().parseText(line);
+    }
+}
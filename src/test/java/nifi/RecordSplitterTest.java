@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the RecordSplitter class
+ */
+public class RecordSplitterTest {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Map<String, String> ATTRIBUTES = Collections.singletonMap("filename", "stdin");
+
+    @Test
+    public void testInputLargerThanPipeBuffer() throws Exception {
+        final int lineCount = 100000;
+        // A pipe hands over its input in pieces, at most a pipe buffer (64 KB) at a time
+        final PipedInputStream in = new PipedInputStream(BUFFER_SIZE);
+        final PipedOutputStream pipe = new PipedOutputStream(in);
+        final Thread writer = new Thread(() -> {
+            try (OutputStream out = pipe) {
+                for (int i = 1; i <= lineCount; i++) {
+                    out.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        final List<String> records = split(RecordSplitter.byLines(in, 1, ATTRIBUTES));
+        writer.join();
+        assertEquals(lineCount, records.size());
+        for (int i = 0; i < lineCount; i++) {
+            assertEquals("line " + (i + 1), records.get(i));
+        }
+    }
+
+    @Test
+    public void testDelimiterSpanningBufferBoundary() throws Exception {
+        final char[] first = new char[BUFFER_SIZE - 1];
+        Arrays.fill(first, 'x');
+        // The first byte of the delimiter is the last byte of the first buffer
+        final String input = new String(first) + "||second||third";
+        final List<String> records = split(RecordSplitter.byDelimiter(toStream(input), "||".getBytes(StandardCharsets.UTF_8), ATTRIBUTES));
+        assertEquals(Arrays.asList(new String(first), "second", "third"), records);
+    }
+
+    @Test
+    public void testDelimiterAfterPartialMatch() throws Exception {
+        // "aa" starts a match of "aab" that fails on the third "a", which must still be able to start the delimiter
+        final List<String> records = split(RecordSplitter.byDelimiter(toStream("aaabxaaab"), "aab".getBytes(StandardCharsets.UTF_8), ATTRIBUTES));
+        assertEquals(Arrays.asList("a", "xa"), records);
+    }
+
+    @Test
+    public void testCarriageReturnsStripped() throws Exception {
+        assertEquals(Arrays.asList("first", "second", "third"),
+                split(RecordSplitter.byLines(toStream("first\r\nsecond\nthird\r\n"), 1, ATTRIBUTES)));
+        // Lines within a record are joined with \n
+        assertEquals(Arrays.asList("first\nsecond", "third"),
+                split(RecordSplitter.byLines(toStream("first\r\nsecond\r\nthird"), 2, ATTRIBUTES)));
+    }
+
+    private static InputStream toStream(String input) {
+        return new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads all records from the splitter, checking that each has the given attributes and the next fragment index
+     *
+     * @return the content of the records
+     */
+    private static List<String> split(RecordSplitter splitter) throws Exception {
+        final List<String> records = new ArrayList<>();
+        InputWaves.Input input;
+        while ((input = splitter.next()) != null) {
+            assertEquals("stdin", input.getAttributes().get("filename"));
+            assertEquals(Integer.toString(records.size() + 1), input.getAttributes().get(RecordSplitter.FRAGMENT_INDEX));
+            records.add(new String(input.getContent(), StandardCharsets.UTF_8));
+        }
+        return records;
+    }
+}
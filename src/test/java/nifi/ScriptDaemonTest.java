@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for runs sent by ScriptClient to a ScriptDaemon
+ */
+public class ScriptDaemonTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private HttpServer server;
+    private int port;
+    private Path tokenDirectory;
+    private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() throws Exception {
+        tokenDirectory = tempFolder.getRoot().toPath().resolve("tokens");
+        server = ScriptDaemon.start(0, tokenDirectory);
+        port = server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdown();
+        ScriptRunner.disableWarmRunners();
+    }
+
+    @Test
+    public void testRunRoundTrip() throws Exception {
+        final String[] args = {"-all", "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy"};
+        assertEquals(0, run(args, ""));
+        assertTrue(stdout.toString("UTF-8"), stdout.toString("UTF-8").contains("Flow Files transferred to success: 3"));
+
+        // The second run of the same script reuses the scheduled processor
+        stdout.reset();
+        assertEquals(0, run(args, ""));
+        assertTrue(stdout.toString("UTF-8").contains("Flow Files transferred to success: 3"));
+
+        assertEquals(2, run(new String[]{"src/test/resources/does_not_exist.groovy"}, ""));
+    }
+
+    @Test
+    public void testStdinForwarded() throws Exception {
+        assertEquals(0, run(new String[]{"-content", "src/test/resources/test_read_input.groovy"}, "Hello from the client"));
+        assertTrue(stdout.toString("UTF-8"), stdout.toString("UTF-8").contains("Hello from the client"));
+    }
+
+    @Test
+    public void testTokenFileIsPrivate() throws Exception {
+        final Path tokenFile = ScriptDaemon.getTokenFile(tokenDirectory, port);
+        Assume.assumeTrue(tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenDirectory)));
+    }
+
+    @Test
+    public void testRequestWithoutTokenRejected() throws Exception {
+        assertEquals(403, post(null, null, 0));
+        assertEquals(403, post("not-the-token", null, 0));
+    }
+
+    @Test
+    public void testRequestFromBrowserRejected() throws Exception {
+        assertEquals(403, post(readToken(), "http://example.com", 0));
+    }
+
+    @Test
+    public void testArgumentCountLimited() throws Exception {
+        assertEquals(400, post(readToken(), null, ScriptDaemon.MAX_ARGUMENTS + 1));
+        assertEquals(400, post(readToken(), null, -1));
+    }
+
+    @Test(expected = IOException.class)
+    public void testClientWithoutTokenFile() throws Exception {
+        ScriptClient.run(port, new String[]{"src/test/resources/test_read_input.groovy"}, tempFolder.newFolder("no-tokens").toPath(),
+                new ByteArrayInputStream(new byte[0]), new PrintStream(stdout), new PrintStream(stderr));
+    }
+
+    private int run(String[] args, String stdin) throws IOException {
+        return ScriptClient.run(port, args, tokenDirectory, new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)),
+                new PrintStream(stdout, true, "UTF-8"), new PrintStream(stderr, true, "UTF-8"));
+    }
+
+    private String readToken() throws IOException {
+        return new String(Files.readAllBytes(ScriptDaemon.getTokenFile(tokenDirectory, port)), StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * POSTs a run request with the given argument count (and no arguments) over a plain socket, as HttpURLConnection
+     * doesn't send Origin headers
+     *
+     * @return the HTTP status of the response
+     */
+    private int post(String token, String origin, int argCount) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final OutputStream out = socket.getOutputStream();
+            final StringBuilder headers = new StringBuilder("POST " + ScriptDaemon.RUN_PATH + " HTTP/1.1\r\nHost: localhost\r\n");
+            if (token != null) {
+                headers.append(ScriptDaemon.TOKEN_HEADER).append(": ").append(token).append("\r\n");
+            }
+            if (origin != null) {
+                headers.append("Origin: ").append(origin).append("\r\n");
+            }
+            headers.append("Content-Length: 4\r\nConnection: close\r\n\r\n");
+            out.write(headers.toString().getBytes(StandardCharsets.US_ASCII));
+            new DataOutputStream(out).writeInt(argCount);
+            out.flush();
+            final String statusLine = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+            return Integer.parseInt(statusLine.split(" ")[1]);
+        }
+    }
+}
@@ -16,13 +16,37 @@
  */
 package nifi;
 
+import groovy.json.JsonSlurper;
+import nifi.script.IndexedModuleClassLoader;
+import nifi.script.TriggerMetrics;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit tests for the ScriptRunner class
@@ -30,6 +54,9 @@ import java.io.InputStream;
 public class ScriptRunnerTest {
     private InputStream stdin;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
         stdin = System.in;
@@ -87,10 +114,255 @@ public class ScriptRunnerTest {
         ScriptRunner.main(new String[]{"-all", "src/test/resources/test_json2json.py"});
     }
 
+    @Test
+    public void testReadWriteJavascript() throws Exception {
+        System.setIn(new FileInputStream("src/test/resources/input_files/jolt.json"));
+        ScriptRunner.main(new String[]{"-all", "src/test/resources/test_json2json.js"});
+    }
+
+    @Test
+    public void testJythonModules() throws Exception {
+        // Jython compiles imported modules to $py.class files next to them, so the module is imported from a copy
+        File moduleDir = tempFolder.newFolder("jython_modules");
+        Files.copy(new File("src/test/resources/jython_modules/translate.py").toPath(), new File(moduleDir, "translate.py").toPath());
+        String output = runCapturingOutput("-all", "-input=src/test/resources/input_files", "-modules=" + moduleDir.getAbsolutePath(), "src/test/resources/test_jython_module.py");
+        assertTrue(output, output.contains("Key: 'filename'\n\tValue: 'FILE1.TXT'"));
+        assertFalse(new File("src/test/resources/jython_modules/translate$py.class").exists());
+    }
+
+    @Test
+    public void testModuleIndex() throws Exception {
+        File moduleDir = tempFolder.newFolder("modules");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(new File(moduleDir, "module.jar")))) {
+            out.putNextEntry(new JarEntry("module.txt"));
+            out.closeEntry();
+        }
+        ScriptRunner.main(new String[]{"-all", "-module-index", "-modules=" + moduleDir.getAbsolutePath(), "-input=src/test/resources/input_files",
+                "src/test/resources/test_read_input.groovy"});
+        assertTrue(new File(moduleDir, IndexedModuleClassLoader.INDEX_FILE_NAME).isFile());
+    }
+
+    @Test
+    public void testCompiledScriptCache() throws Exception {
+        String cacheArg = "-cache=" + tempFolder.getRoot().getAbsolutePath();
+        // The first runs compile and store the scripts, the second runs find them stored and add nothing more
+        // (loading from the cache is covered by CompiledScriptCacheTest, as these runs find the scripts in memory)
+        for (int i = 0; i < 2; i++) {
+            System.setIn(new FileInputStream("src/test/resources/input_files/jolt.json"));
+            ScriptRunner.main(new String[]{"-all", cacheArg, "src/test/resources/test_json2json.groovy"});
+            System.setIn(new FileInputStream("src/test/resources/input_files/jolt.json"));
+            ScriptRunner.main(new String[]{"-all", cacheArg, "src/test/resources/test_json2json.py"});
+        }
+        assertEquals(2, tempFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        String output = runCapturingOutput("-all-rels", "-metrics", "-warmup=100", "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy");
+        // The warm-up evaluations run against an empty session, so only the input files are triggered and transferred
+        assertTrue(output, output.contains("Flow Files transferred to success: 3\n"));
+        assertTrue(output, output.contains("Flow Files transferred to failure: 0\n"));
+        assertTrue(output, output.contains("3 trigger(s): 3 succeeded, 0 failed, 0 rolled back, 0 skipped"));
+    }
+
+    @Test
+    public void testStreamInput() throws Exception {
+        String output = runCapturingOutput("-all", "-stream", "-wave-files=2", "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy");
+        // Two waves for the three input files, all of which reach success
+        assertTrue(output, output.contains("Wave 1: 2 flow file(s), 2 of 3 read"));
+        assertTrue(output, output.contains("Wave 2: 1 flow file(s), 3 of 3 read"));
+        assertTrue(output, output.contains("Flow Files transferred to success: 2"));
+        assertTrue(output, output.contains("Flow Files transferred to success: 1"));
+        for (String fileName : new String[]{"file1.txt", "file2.json", "jolt.json"}) {
+            assertTrue(output, output.contains("Key: 'filename'\n\tValue: '" + fileName + "'"));
+        }
+    }
+
+    @Test
+    public void testFileContent() throws Exception {
+        File inputDir = tempFolder.newFolder("input");
+        Files.copy(new File("src/test/resources/input_files/jolt.json").toPath(), new File(inputDir, "jolt.json").toPath());
+        File outputDir = tempFolder.newFolder("output");
+        ScriptRunner.main(new String[]{"-all", "-file-content=" + tempFolder.newFolder("content").getAbsolutePath(), "-input=" + inputDir.getAbsolutePath(),
+                "-output=" + outputDir.getAbsolutePath(), "src/test/resources/test_json2json.js"});
+        // The script's output was written to, and read back from, the content store
+        String output = new String(Files.readAllBytes(new File(outputDir, "success/jolt_translated.json").toPath()), "UTF-8");
+        assertTrue(output, output.contains("\"SecondaryRatings\""));
+    }
+
+    @Test
+    public void testOutputDirectory() throws Exception {
+        File outputDir = tempFolder.newFolder("output");
+        ScriptRunner.main(new String[]{"-all", "-output=" + outputDir.getAbsolutePath(), "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy"});
+        assertTrue(new File(outputDir, "success/file1.txt").exists());
+        assertTrue(new File(outputDir, "success/file1.txt.attributes").exists());
+    }
+
+    @Test
+    public void testNdjsonFormat() throws Exception {
+        String output = runCapturingOutput("-all", "-format=ndjson", "-content-limit=16", "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy");
+        String[] lines = output.split("\n");
+        assertEquals(3, lines.length);
+        List<String> fileNames = new ArrayList<>();
+        for (String line : lines) {
+            // Each line is a JSON object on its own
+            Map<?, ?> result = (Map<?, ?>) new JsonSlurper().parseText(line);
+            assertEquals("success", result.get("relationship"));
+            assertTrue(((Number) result.get("triggerNanos")).longValue() >= 0);
+            String fileName = (String) ((Map<?, ?>) result.get("attributes")).get("filename");
+            fileNames.add(fileName);
+            byte[] content = Files.readAllBytes(new File("src/test/resources/input_files", fileName).toPath());
+            assertEquals(content.length, ((Number) result.get("size")).intValue());
+            assertEquals(new String(content, 0, Math.min(16, content.length), "UTF-8"), result.get("content"));
+            assertEquals(content.length > 16, result.get("contentTruncated"));
+        }
+        Collections.sort(fileNames);
+        assertEquals(Arrays.asList("file1.txt", "file2.json", "jolt.json"), fileNames);
+    }
+
+    @Test
+    public void testSplitLines() throws Exception {
+        System.setIn(new ByteArrayInputStream("first\nsecond\r\nthird".getBytes()));
+        String output = runCapturingOutput("-all", "-format=ndjson", "-split-lines=1", "-wave-files=2", "src/test/resources/test_read_input.groovy");
+        // One flow file per line, without its line ending (\r\n included), in order
+        List<String> contents = new ArrayList<>();
+        for (String line : output.split("\n")) {
+            Map<?, ?> result = (Map<?, ?>) new JsonSlurper().parseText(line);
+            assertEquals("success", result.get("relationship"));
+            contents.add((String) result.get("content"));
+        }
+        assertEquals(Arrays.asList("first", "second", "third"), contents);
+    }
+
+    @Test
+    public void testWarmRunners() throws Exception {
+        ScriptRunner.enableWarmRunners();
+        try {
+            String[] args = {"-all", "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy"};
+            assertEquals(0, ScriptRunner.runWarm(args));
+            // The second run reuses the scheduled processor
+            assertEquals(0, ScriptRunner.runWarm(args));
+            assertEquals(2, ScriptRunner.runWarm(new String[]{"src/test/resources/does_not_exist.groovy"}));
+        } finally {
+            ScriptRunner.disableWarmRunners();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        String output = runCapturingOutput("-metrics", "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy");
+        for (TriggerMetrics.Phase phase : TriggerMetrics.Phase.values()) {
+            assertTrue(output, Pattern.compile("(?m)^" + phase.getDisplayName() + " +\\d+ ").matcher(output).find());
+        }
+        // One trigger per input file
+        assertTrue(output, output.contains("3 trigger(s): 3 succeeded, 0 failed, 0 rolled back, 0 skipped"));
+    }
+
+    @Test
+    public void testProfile() throws Exception {
+        File collapsedStacks = new File(tempFolder.getRoot(), "profile.collapsed");
+        // Replay the input enough times for the sampler to catch the script's own lines
+        ScriptRunner.main(new String[]{"-profile=" + collapsedStacks.getAbsolutePath(), "-bench", "-bench-warmup=0", "-bench-iterations=500",
+                "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy"});
+        String stacks = new String(Files.readAllBytes(collapsedStacks.toPath()), "UTF-8");
+        assertTrue(stacks.length() > 0);
+        assertTrue(stacks, Pattern.compile("\\(test_read_input\\.groovy:\\d+\\)").matcher(stacks).find());
+    }
+
+    @Test
+    public void testMemory() throws Exception {
+        System.setIn(new FileInputStream("src/test/resources/input_files/jolt.json"));
+        String output = runCapturingOutput("-memory", "src/test/resources/test_json2json.groovy");
+        assertTrue(output, Pattern.compile("Allocated per flow file +\\S+ \\S+ \\(1 flow file\\(s\\)\\)").matcher(output).find());
+        assertTrue(output, Pattern.compile("Allocated per input byte +\\S+ bytes \\(142 input byte\\(s\\)\\)").matcher(output).find());
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        File outputDir = tempFolder.newFolder("output");
+        ScriptRunner.main(new String[]{"-all", "-batch=2", "-output=" + outputDir.getAbsolutePath(), "-input=src/test/resources/input_files", "src/test/resources/test_batch.groovy"});
+        // The three input files go to the script as a batch of two and a batch of one
+        List<String> batchSizes = new ArrayList<>();
+        for (String fileName : new String[]{"file1.txt", "file2.json", "jolt.json"}) {
+            Properties attributes = new Properties();
+            try (InputStream in = new FileInputStream(new File(outputDir, "success/" + fileName + ".attributes"))) {
+                attributes.load(in);
+            }
+            batchSizes.add(attributes.getProperty("batch.size"));
+        }
+        Collections.sort(batchSizes);
+        assertEquals(Arrays.asList("1", "2", "2"), batchSizes);
+    }
+
+    @Test
+    public void testThreads() throws Exception {
+        // More input files than threads, and triggers slow enough that the threads share them out
+        File inputDir = tempFolder.newFolder("input");
+        for (int i = 0; i < 8; i++) {
+            Files.write(new File(inputDir, "file" + i + ".txt").toPath(), ("Hello " + i).getBytes("UTF-8"));
+        }
+        File script = tempFolder.newFile("test_slow.groovy");
+        Files.write(script.toPath(), "def flowFile = session.get()\nif (flowFile) { Thread.sleep(100); session.transfer(flowFile, REL_SUCCESS) }\n".getBytes("UTF-8"));
+        String output = runCapturingOutput("-threads=4", "-input=" + inputDir.getAbsolutePath(), script.getAbsolutePath());
+        assertTrue(output, output.contains("Flow Files transferred to success: 8\n"));
+        // One row per thread: name, triggers, commits, rollbacks (none), failures (none) and mean time
+        Matcher threadRows = Pattern.compile("(?m)^\\S+ +(\\d+) +\\1 +0 +0 +\\d+\\.\\d+$").matcher(output);
+        int threadCount = 0;
+        while (threadRows.find()) {
+            threadCount++;
+        }
+        assertEquals(output, 4, threadCount);
+        assertTrue(output, Pattern.compile("8 trigger\\(s\\) on 4 thread\\(s\\) in .*, 0 failure\\(s\\)").matcher(output).find());
+    }
+
+    @Test
+    public void testBench() throws Exception {
+        File benchOutput = tempFolder.newFile("bench.json");
+        ScriptRunner.main(new String[]{"-bench", "-bench-warmup=1", "-bench-iterations=2", "-bench-output=" + benchOutput.getAbsolutePath(),
+                "-input=src/test/resources/input_files", "src/test/resources/test_read_input.groovy"});
+        List<String> results = Files.readAllLines(benchOutput.toPath());
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).contains("\"failures\":0,\"rollbacks\":0}"));
+    }
+
+    @Test
+    public void testBenchFailure() throws Exception {
+        File script = tempFolder.newFile("test_fail.groovy");
+        Files.write(script.toPath(), "def flowFile = session.get()\nif (flowFile) { throw new IllegalStateException('bench failure') }\n".getBytes());
+        File benchOutput = tempFolder.newFile("bench.json");
+        ScriptRunner.enableWarmRunners();
+        try {
+            // A failing script must not pass for a benchmark result
+            assertEquals(9, ScriptRunner.runWarm(new String[]{"-bench", "-bench-warmup=1", "-bench-iterations=2", "-bench-output=" + benchOutput.getAbsolutePath(),
+                    "-input=src/test/resources/input_files", script.getAbsolutePath()}));
+        } finally {
+            ScriptRunner.disableWarmRunners();
+        }
+        String result = Files.readAllLines(benchOutput.toPath()).get(0);
+        assertTrue(result, result.matches(".*\"failures\":[1-9]\\d*,\"rollbacks\":[1-9]\\d*}"));
+    }
+
     @Test
     public void testReadInputWithAttributes() throws Exception {
         ByteArrayInputStream bais = new ByteArrayInputStream("Hello World!".getBytes());
         System.setIn(bais);
         ScriptRunner.main(new String[]{"-all", "-attrfile=src/test/resources/attrfiles/incoming_attributes.properties", "src/test/resources/test_attributes_to_propfile.groovy"});
     }
-}
\ No newline at end of file
+
+    /**
+     * Runs ScriptRunner with the given arguments
+     *
+     * @return what it wrote to standard output
+     */
+    private static String runCapturingOutput(String... args) throws Exception {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            ScriptRunner.main(args);
+        } finally {
+            System.setOut(stdout);
+        }
+        return new String(output.toByteArray(), "UTF-8");
+    }
+}
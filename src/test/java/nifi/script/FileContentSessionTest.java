@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.exception.FlowFileAccessException;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.MockProcessSession;
+import org.apache.nifi.util.SharedSessionState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for sessions whose content is kept in a FileContentStore
+ */
+public class FileContentSessionTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private FileContentStore store;
+    private ProcessSession session;
+    private Path inputFile;
+    private FlowFile input;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new FileContentStore(tempFolder.newFolder("content").toPath());
+        final AccessibleExecuteScript processor = new AccessibleExecuteScript();
+        final SharedSessionState sessionState = new SharedSessionState(processor, new AtomicLong());
+
+        // Queue a flow file whose content is an input file, as ScriptRunner does
+        inputFile = tempFolder.newFile("input.txt").toPath();
+        Files.write(inputFile, "original".getBytes(StandardCharsets.UTF_8));
+        final MockFlowFile queued = new MockFlowFile(sessionState.nextFlowFileId());
+        store.setContent(queued, inputFile);
+        sessionState.getFlowFileQueue().offer(queued);
+
+        session = store.wrap(new MockProcessSession(sessionState, processor));
+        input = session.get();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    public void testRollbackRestoresContent() throws Exception {
+        final FlowFile written = session.write(input, out -> out.write("changed".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("changed", read(written));
+        assertNotEquals(inputFile, store.getContent(written));
+
+        session.rollback();
+        assertEquals(inputFile, store.getContent(input));
+        assertEquals("original", new String(Files.readAllBytes(inputFile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWriteStream() throws Exception {
+        try (OutputStream out = session.write(input)) {
+            out.write("streamed".getBytes(StandardCharsets.UTF_8));
+            try {
+                session.putAttribute(input, "attribute", "value");
+                fail("The flow file should be in use while its stream is open");
+            } catch (IllegalStateException expected) {
+                // The delegate session holds the flow file until the stream is closed
+            }
+        }
+        assertEquals("streamed", read(input));
+        assertEquals("value", session.putAttribute(input, "attribute", "value").getAttribute("attribute"));
+
+        session.rollback();
+        assertEquals(inputFile, store.getContent(input));
+    }
+
+    @Test
+    public void testCloneSharesContent() throws Exception {
+        final FlowFile clone = session.clone(input);
+        assertEquals(inputFile, store.getContent(clone));
+
+        // Writing the clone leaves the original (and the file they shared) alone
+        final FlowFile writtenClone = session.write(clone, out -> out.write("clone".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("clone", read(writtenClone));
+        assertEquals("original", read(input));
+        assertEquals("original", new String(Files.readAllBytes(inputFile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        final FlowFile appended = session.append(input, out -> out.write(" and more".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("original and more", read(appended));
+        assertEquals("original", new String(Files.readAllBytes(inputFile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRangedClone() throws Exception {
+        final FlowFile clone = session.clone(input, 2, 3);
+        assertEquals("igi", read(clone));
+        assertEquals("original", read(input));
+        try {
+            session.clone(input, 6, 3);
+            fail("A range past the end of the content should not be cloned");
+        } catch (FlowFileAccessException expected) {
+            // The content is only 8 bytes
+        }
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        final FlowFile other = session.write(session.create(), out -> out.write("other".getBytes(StandardCharsets.UTF_8)));
+        final FlowFile merged = session.merge(Arrays.asList(input, other), session.create(),
+                "[".getBytes(StandardCharsets.UTF_8), "]".getBytes(StandardCharsets.UTF_8), "|".getBytes(StandardCharsets.UTF_8));
+        assertEquals("[original|other]", read(merged));
+        assertEquals(16, store.getSize(merged));
+    }
+
+    private String read(FlowFile flowFile) throws Exception {
+        try (InputStream in = session.read(flowFile)) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
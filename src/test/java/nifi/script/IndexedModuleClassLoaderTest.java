@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the IndexedModuleClassLoader class
+ */
+public class IndexedModuleClassLoaderTest {
+
+    private static final String MODULE_CLASS_NAME = Module.class.getName();
+    private static final String MODULE_CLASS_FILE = MODULE_CLASS_NAME.replace('.', '/') + ".class";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * A class with no dependencies, to be loaded from a module JAR
+     */
+    public static class Module {
+    }
+
+    @Test
+    public void testIndexedLookup() throws Exception {
+        final File moduleDir = tempFolder.newFolder("modules");
+        final File first = writeJar(new File(moduleDir, "first.jar"), "shared.txt", "first", "first.txt", "first");
+        final File second = writeJar(new File(moduleDir, "second.jar"), "shared.txt", "second", "second.txt", "second",
+                MODULE_CLASS_FILE, null);
+
+        try (IndexedModuleClassLoader classLoader = IndexedModuleClassLoader.newInstance(toURLs(first, second), null, false)) {
+            assertEquals("first", read(classLoader.getResource("first.txt")));
+            assertEquals("second", read(classLoader.getResource("second.txt")));
+            assertEquals("first", read(classLoader.getResource("shared.txt")));
+            List<URL> shared = Collections.list(classLoader.getResources("shared.txt"));
+            assertEquals(2, shared.size());
+            assertEquals("first", read(shared.get(0)));
+            assertEquals("second", read(shared.get(1)));
+
+            Class<?> moduleClass = classLoader.loadClass(MODULE_CLASS_NAME);
+            assertSame(classLoader, moduleClass.getClassLoader());
+            assertEquals(second.toURI().toURL(), moduleClass.getProtectionDomain().getCodeSource().getLocation());
+        }
+    }
+
+    @Test
+    public void testLookupFollowsClasspathOrder() throws Exception {
+        final File moduleDir = tempFolder.newFolder("modules");
+        Files.write(new File(moduleDir, "shared.txt").toPath(), "directory".getBytes(StandardCharsets.UTF_8));
+        final File jar = writeJar(tempFolder.newFile("module.jar"), "shared.txt", "jar");
+
+        try (IndexedModuleClassLoader classLoader = IndexedModuleClassLoader.newInstance(toURLs(moduleDir, jar), null, false)) {
+            assertEquals("directory", read(classLoader.getResource("shared.txt")));
+            List<URL> shared = Collections.list(classLoader.getResources("shared.txt"));
+            assertEquals("directory", read(shared.get(0)));
+            assertEquals("jar", read(shared.get(1)));
+        }
+        try (IndexedModuleClassLoader classLoader = IndexedModuleClassLoader.newInstance(toURLs(jar, moduleDir), null, false)) {
+            assertEquals("jar", read(classLoader.getResource("shared.txt")));
+            List<URL> shared = Collections.list(classLoader.getResources("shared.txt"));
+            assertEquals("jar", read(shared.get(0)));
+            assertEquals("directory", read(shared.get(1)));
+        }
+    }
+
+    @Test
+    public void testPersistedIndexIsReused() throws Exception {
+        final File moduleDir = tempFolder.newFolder("modules");
+        final File jar = writeJar(new File(moduleDir, "module.jar"), "a.txt", "a");
+        final URL[] urls = toURLs(moduleDir, jar);
+        final String[] modulePaths = {moduleDir.getAbsolutePath()};
+        final String fingerprint = ModuleClasspathCache.fingerprint(modulePaths);
+
+        IndexedModuleClassLoader.newInstance(urls, null, true).close();
+        final File indexFile = new File(moduleDir, IndexedModuleClassLoader.INDEX_FILE_NAME);
+        assertTrue(indexFile.isFile());
+        // Writing the index must not make the modules look changed, or they would be loaded again
+        assertEquals(fingerprint, ModuleClasspathCache.fingerprint(modulePaths));
+
+        // An unchanged JAR is taken from the index, which is left as it is
+        final long indexModified = 1000000000000L;
+        assertTrue(indexFile.setLastModified(indexModified));
+        try (IndexedModuleClassLoader classLoader = IndexedModuleClassLoader.newInstance(urls, null, true)) {
+            assertEquals("a", read(classLoader.getResource("a.txt")));
+        }
+        assertEquals(indexModified, indexFile.lastModified());
+
+        // A changed JAR is scanned again, and the index rewritten
+        writeJar(jar, "a.txt", "a", "b.txt", "b");
+        try (IndexedModuleClassLoader classLoader = IndexedModuleClassLoader.newInstance(urls, null, true)) {
+            assertEquals("b", read(classLoader.getResource("b.txt")));
+        }
+        assertNotEquals(indexModified, indexFile.lastModified());
+    }
+
+    @Test
+    public void testJarsClosedWhenCollected() throws Exception {
+        final File jar = writeJar(tempFolder.newFile("module.jar"), MODULE_CLASS_FILE, null);
+        IndexedModuleClassLoader classLoader = IndexedModuleClassLoader.newInstance(toURLs(jar), null, false);
+        Class<?> moduleClass = classLoader.loadClass(MODULE_CLASS_NAME);
+        assertEquals(MODULE_CLASS_NAME.substring(0, MODULE_CLASS_NAME.lastIndexOf('.')), moduleClass.getPackage().getName());
+        final Object indexedJar = getIndexedJars(classLoader)[0];
+        assertNotNull("Loading the class opens the JAR", getJarFile(indexedJar));
+
+        // As ModuleClasspathCache does, drop the class loader without closing it
+        final WeakReference<ClassLoader> classLoaderReference = new WeakReference<>(classLoader);
+        classLoader = null;
+        moduleClass = null;
+        for (int i = 0; i < 20 && getJarFile(indexedJar) != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+            IndexedModuleClassLoader.closeCollectedJars();
+        }
+        assertNull(classLoaderReference.get());
+        assertNull("The JAR of the collected class loader was left open", getJarFile(indexedJar));
+    }
+
+    private static Object[] getIndexedJars(IndexedModuleClassLoader classLoader) throws Exception {
+        final Field jars = IndexedModuleClassLoader.class.getDeclaredField("jars");
+        jars.setAccessible(true);
+        return (Object[]) jars.get(classLoader);
+    }
+
+    private static Object getJarFile(Object indexedJar) throws Exception {
+        final Field jarFile = indexedJar.getClass().getDeclaredField("jarFile");
+        jarFile.setAccessible(true);
+        return jarFile.get(indexedJar);
+    }
+
+    private static URL[] toURLs(File... files) throws Exception {
+        URL[] urls = new URL[files.length];
+        for (int i = 0; i < files.length; i++) {
+            urls[i] = files[i].toURI().toURL();
+        }
+        return urls;
+    }
+
+    private static String read(URL resource) throws Exception {
+        // Cached JAR connections would still see a JAR as it was before it was overwritten
+        URLConnection connection = resource.openConnection();
+        connection.setUseCaches(false);
+        try (InputStream in = connection.getInputStream()) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes a JAR with the given entries, each name followed by its content, or null for the class file of that name
+     */
+    private static File writeJar(File jar, String... namesAndContents) throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndContents.length; i += 2) {
+            String content = namesAndContents[i + 1];
+            if (content != null) {
+                entries.put(namesAndContents[i], content.getBytes(StandardCharsets.UTF_8));
+            } else {
+                try (InputStream in = IndexedModuleClassLoaderTest.class.getClassLoader().getResourceAsStream(namesAndContents[i])) {
+                    entries.put(namesAndContents[i], IOUtils.toByteArray(in));
+                }
+            }
+        }
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+}
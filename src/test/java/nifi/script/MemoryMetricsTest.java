@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Unit tests for the MemoryMetrics class
+ */
+public class MemoryMetricsTest {
+
+    @Test
+    public void testTriggerAllocationsAreRecorded() throws Exception {
+        final MemoryMetrics memoryMetrics = new MemoryMetrics();
+        assumeTrue("Allocation cannot be measured on this JVM", memoryMetrics.isAllocationSupported());
+
+        final AccessibleExecuteScript executeScript = new AccessibleExecuteScript();
+        executeScript.getSupportedPropertyDescriptors();
+        final TestRunner runner = TestRunners.newTestRunner(executeScript);
+        runner.setValidateExpressionUsage(false);
+        runner.setProperty(executeScript.getScriptingComponentHelper().SCRIPT_ENGINE, "Groovy");
+        runner.setProperty(ScriptingComponentUtils.SCRIPT_FILE, "src/test/resources/test_json2json.groovy");
+        executeScript.setMemoryMetrics(memoryMetrics);
+
+        final byte[] input = Files.readAllBytes(Paths.get("src/test/resources/input_files/jolt.json"));
+        runner.enqueue(input);
+        memoryMetrics.recordInput(input.length);
+        runner.run();
+        runner.assertAllFlowFilesTransferred(ExecuteScript.REL_SUCCESS, 1);
+
+        // Parsing and writing the JSON allocates, at the very least, a copy of the input
+        assertTrue(memoryMetrics.getAllocatedBytes() > input.length);
+        assertEquals(1, memoryMetrics.getTriggerAllocations().getCount());
+        assertEquals(memoryMetrics.getAllocatedBytes(), memoryMetrics.getTriggerAllocations().getMax());
+        assertEquals(1, memoryMetrics.getInputFlowFiles());
+        assertEquals(input.length, memoryMetrics.getInputBytes());
+    }
+}
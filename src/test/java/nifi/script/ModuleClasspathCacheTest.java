@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the ModuleClasspathCache class
+ */
+public class ModuleClasspathCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testFingerprintChangesWhenJarIsOverwritten() throws Exception {
+        final File moduleDir = tempFolder.newFolder("modules");
+        final File jar = new File(moduleDir, "module.jar");
+        writeJar(jar, "a.txt");
+        final String[] modulePaths = {moduleDir.getAbsolutePath()};
+        final String fingerprint = ModuleClasspathCache.fingerprint(modulePaths);
+        assertEquals(fingerprint, ModuleClasspathCache.fingerprint(modulePaths));
+
+        // Overwriting the JAR in place leaves the directory's modification time alone
+        final long directoryModified = moduleDir.lastModified();
+        final long jarModified = jar.lastModified();
+        writeJar(jar, "a.txt", "b.txt");
+        jar.setLastModified(jarModified);
+        moduleDir.setLastModified(directoryModified);
+        assertNotEquals(fingerprint, ModuleClasspathCache.fingerprint(modulePaths));
+    }
+
+    @Test
+    public void testClassLoaderIsSharedAndParentIsCollected() throws Exception {
+        final File jar = tempFolder.newFile("module.jar");
+        writeJar(jar, "a.txt");
+        final URL[] urls = {jar.toURI().toURL()};
+        final String[] modulePaths = {jar.getAbsolutePath()};
+
+        URLClassLoader parent = new URLClassLoader(new URL[0], null);
+        ClassLoader classLoader = ModuleClasspathCache.getClassLoader(urls, modulePaths, parent, false);
+        assertSame(classLoader, ModuleClasspathCache.getClassLoader(urls, modulePaths, parent, false));
+
+        final WeakReference<ClassLoader> parentReference = new WeakReference<>(parent);
+        parent.close();
+        parent = null;
+        classLoader = null;
+        for (int i = 0; i < 20 && parentReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull("The cached module class loader kept its parent from being collected", parentReference.get());
+    }
+
+    private static void writeJar(File jar, String... entryNames) throws Exception {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String entryName : entryNames) {
+                out.putNextEntry(new JarEntry(entryName));
+                out.write(entryName.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.codehaus.groovy.jsr223.GroovyScriptEngineFactory;
+import org.junit.Test;
+
+import javax.script.ScriptEngine;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the ScriptEnginePool class
+ */
+public class ScriptEnginePoolTest {
+
+    private static final GroovyScriptEngineFactory ENGINE_FACTORY = new GroovyScriptEngineFactory();
+
+    @Test
+    public void testIdlePoolShrinksToMinimum() throws Exception {
+        final ScriptEnginePool pool = new ScriptEnginePool(ENGINE_FACTORY::getScriptEngine, null, 1, 3, 20);
+        try {
+            final List<ScriptEngine> engines = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                engines.add(pool.acquire(1, TimeUnit.SECONDS));
+            }
+            for (ScriptEngine engine : engines) {
+                pool.release(engine);
+            }
+            assertEquals(3, pool.getSize());
+
+            // Nothing more is released, so only the background eviction can shrink the pool
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (pool.getSize() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, pool.getSize());
+            assertEquals(2, pool.getEvicted());
+            assertEquals(1, pool.getIdleEngines().size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentReleasesKeepMinimum() throws Exception {
+        final int maxSize = 8;
+        final ScriptEnginePool pool = new ScriptEnginePool(ENGINE_FACTORY::getScriptEngine, null, 4, maxSize, 0);
+        try {
+            for (int round = 0; round < 20; round++) {
+                final List<ScriptEngine> engines = new ArrayList<>();
+                for (int i = 0; i < maxSize; i++) {
+                    engines.add(pool.acquire(1, TimeUnit.SECONDS));
+                }
+                // Release every engine at once, each release evicting idle engines above the minimum
+                final CountDownLatch start = new CountDownLatch(engines.size());
+                final List<Thread> threads = new ArrayList<>();
+                for (ScriptEngine engine : engines) {
+                    Thread thread = new Thread(() -> {
+                        start.countDown();
+                        try {
+                            start.await();
+                        } catch (InterruptedException ignored) {
+                            // Release anyway
+                        }
+                        pool.release(engine);
+                    });
+                    thread.start();
+                    threads.add(thread);
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                assertTrue("Pool shrank to " + pool.getSize(), pool.getSize() >= 4);
+                assertEquals(pool.getSize(), pool.getIdleEngines().size());
+            }
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.codehaus.groovy.jsr223.GroovyScriptEngineFactory;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the ScriptEngineRegistry class
+ */
+public class ScriptEngineRegistryTest {
+
+    private static final String FACTORY_CLASS_NAME = GroovyScriptEngineFactory.class.getName();
+
+    @Test
+    public void testRegistryIsSharedWhileInUse() {
+        final ClassLoader classLoader = getClass().getClassLoader();
+        final ScriptEngineRegistry registry = ScriptEngineRegistry.getInstance(classLoader, FACTORY_CLASS_NAME);
+        assertSame(registry, ScriptEngineRegistry.getInstance(classLoader, FACTORY_CLASS_NAME));
+        assertNotSame(registry, ScriptEngineRegistry.getInstance(classLoader));
+    }
+
+    @Test
+    public void testRegistrySurvivesGarbageCollection() throws Exception {
+        // Once no component holds the registry, a collection must not send the next one back to discovery
+        final ClassLoader classLoader = getClass().getClassLoader();
+        final WeakReference<ScriptEngineRegistry> registry = new WeakReference<>(ScriptEngineRegistry.getInstance(classLoader));
+        System.gc();
+        Thread.sleep(50);
+        System.gc();
+        assertNotNull("The registry was collected", registry.get());
+        assertSame(registry.get(), ScriptEngineRegistry.getInstance(classLoader));
+    }
+
+    @Test
+    public void testDiscardedClassLoaderIsCollected() throws Exception {
+        // The factory is loaded by the class loader itself, as it would be from a module, so it refers back to it
+        final URL groovyJar = GroovyScriptEngineFactory.class.getProtectionDomain().getCodeSource().getLocation();
+        URLClassLoader classLoader = new URLClassLoader(new URL[]{groovyJar}, null);
+        ScriptEngineRegistry registry = ScriptEngineRegistry.getInstance(classLoader, FACTORY_CLASS_NAME);
+        assertSame(classLoader, registry.getScriptEngineFactories().values().iterator().next().getClass().getClassLoader());
+
+        final WeakReference<ClassLoader> classLoaderReference = new WeakReference<>(classLoader);
+        classLoader.close();
+        classLoader = null;
+        registry = null;
+        // The registry is softly referenced, so it is only let go when memory runs low
+        exhaustMemory();
+        for (int i = 0; i < 20 && classLoaderReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull("The registry kept its class loader from being collected", classLoaderReference.get());
+    }
+
+    /**
+     * Allocates until the heap is exhausted, which clears every soft reference
+     */
+    private static void exhaustMemory() {
+        final List<byte[]> allocations = new ArrayList<>();
+        try {
+            while (true) {
+                allocations.add(new byte[16 * 1024 * 1024]);
+            }
+        } catch (OutOfMemoryError expected) {
+            allocations.clear();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for reloading a changed script file while ExecuteScript is running
+ */
+public class ScriptReloadTest {
+
+    private static final String SCRIPT = "def flowFile = session.get()\n"
+            + "if (flowFile) { session.transfer(session.putAttribute(flowFile, 'version', '%s'), REL_SUCCESS) }\n";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private AccessibleExecuteScript executeScript;
+    private TestRunner runner;
+    private File scriptFile;
+    private final Semaphore scriptReloaded = new Semaphore(0);
+
+    @Before
+    public void setUp() throws Exception {
+        scriptFile = tempFolder.newFile("reload.groovy");
+        writeScript(String.format(SCRIPT, "1"));
+        executeScript = new AccessibleExecuteScript();
+        // Initializes the property descriptors, including the script engine's
+        executeScript.getSupportedPropertyDescriptors();
+        runner = TestRunners.newTestRunner(executeScript);
+        runner.setValidateExpressionUsage(false);
+        runner.setProperty(executeScript.getScriptingComponentHelper().SCRIPT_ENGINE, "Groovy");
+        runner.setProperty(ScriptingComponentUtils.SCRIPT_FILE, scriptFile.getAbsolutePath());
+        runner.setProperty(ScriptingComponentUtils.RELOAD_SCRIPT_FILE, "true");
+        executeScript.getScriptingComponentHelper().addScriptReloadListener(scriptReloaded::release);
+        assertEquals("1", trigger(true));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executeScript.stop();
+    }
+
+    @Test
+    public void testChangedScriptIsSwappedIn() throws Exception {
+        writeScript(String.format(SCRIPT, "2"));
+        assertTrue("The script was not reloaded", scriptReloaded.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals("2", trigger(false));
+    }
+
+    @Test
+    public void testScriptThatFailsToCompileIsNotSwappedIn() throws Exception {
+        writeScript("def flowFile = session.get(\n");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (runner.getLogger().getErrorMessages().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(runner.getLogger().getErrorMessages().get(0).getMsg().contains("does not compile"));
+        assertEquals(0, scriptReloaded.availablePermits());
+        assertEquals("1", trigger(false));
+
+        // A later change that compiles is still picked up
+        writeScript(String.format(SCRIPT, "3"));
+        assertTrue("The script was not reloaded", scriptReloaded.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals("3", trigger(false));
+    }
+
+    @Test
+    public void testDeletedAndRecreatedScriptIsReloaded() throws Exception {
+        // As an editor that deletes the file before writing it again would, leaving it missing in between
+        Files.delete(scriptFile.toPath());
+        Thread.sleep(200);
+        Files.write(scriptFile.toPath(), String.format(SCRIPT, "2").getBytes(Charset.defaultCharset()));
+        assertTrue("The script was not reloaded", scriptReloaded.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals("2", trigger(false));
+
+        // The watcher is still running
+        writeScript(String.format(SCRIPT, "3"));
+        assertTrue("The script was not reloaded", scriptReloaded.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals("3", trigger(false));
+    }
+
+    @Test
+    public void testFailedReloadDoesNotStopWatching() throws Exception {
+        final AtomicBoolean failed = new AtomicBoolean();
+        executeScript.getScriptingComponentHelper().addScriptReloadListener(() -> {
+            if (failed.compareAndSet(false, true)) {
+                throw new IllegalStateException("Reload listener failure");
+            }
+        });
+        writeScript(String.format(SCRIPT, "2"));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (runner.getLogger().getErrorMessages().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(runner.getLogger().getErrorMessages().get(0).getMsg().contains("Unable to reload script file"));
+        scriptReloaded.drainPermits();
+
+        // A later change is still picked up
+        writeScript(String.format(SCRIPT, "3"));
+        assertTrue("The script was not reloaded", scriptReloaded.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals("3", trigger(false));
+    }
+
+    /**
+     * Triggers the processor with one flow file, keeping it scheduled
+     *
+     * @return the version attribute the script set on the flow file
+     */
+    private String trigger(boolean initialize) {
+        runner.clearTransferState();
+        runner.enqueue(new byte[0]);
+        runner.run(1, false, initialize);
+        runner.assertAllFlowFilesTransferred(ExecuteScript.REL_SUCCESS, 1);
+        return runner.getFlowFilesForRelationship(ExecuteScript.REL_SUCCESS).get(0).getAttribute("version");
+    }
+
+    /**
+     * Replaces the script file as a whole, as editors do, so the watcher never reads a partly written script
+     */
+    private void writeScript(String script) throws Exception {
+        final Path tempFile = Files.createTempFile(tempFolder.getRoot().toPath(), "reload", ".tmp");
+        Files.write(tempFile, script.getBytes(Charset.defaultCharset()));
+        Files.move(tempFile, scriptFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
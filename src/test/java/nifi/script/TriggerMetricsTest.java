@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the TriggerMetrics class
+ */
+public class TriggerMetricsTest {
+
+    private static final String NAME = "trigger-metrics-test";
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final TriggerMetrics metrics = new TriggerMetrics();
+
+    @After
+    public void tearDown() {
+        metrics.unregisterMBeans();
+    }
+
+    @Test
+    public void testMBeansRegisterAndUnregister() throws Exception {
+        final ObjectName countsName = new ObjectName("nifi.script:type=ExecuteScript,name=" + ObjectName.quote(NAME));
+        final ObjectName evaluationName = new ObjectName("nifi.script:type=ExecuteScript,name=" + ObjectName.quote(NAME) + ",phase=evaluation");
+
+        metrics.registerMBeans(NAME);
+        assertTrue(server.isRegistered(countsName));
+        for (TriggerMetrics.Phase phase : TriggerMetrics.Phase.values()) {
+            assertTrue(phase.name(), server.isRegistered(new ObjectName(countsName + ",phase=" + phase.name().toLowerCase())));
+        }
+
+        // The MBeans read the live metrics
+        metrics.recordTrigger();
+        metrics.recordSuccess();
+        metrics.record(TriggerMetrics.Phase.EVALUATION, System.nanoTime() - 1000);
+        assertEquals(1L, server.getAttribute(countsName, "Triggers"));
+        assertEquals(1L, server.getAttribute(countsName, "Successes"));
+        assertEquals(0L, server.getAttribute(countsName, "Skips"));
+        assertEquals(1L, server.getAttribute(evaluationName, "Count"));
+        server.invoke(countsName, "reset", null, null);
+        assertEquals(0L, metrics.getTriggers());
+        assertEquals(0L, server.getAttribute(evaluationName, "Count"));
+
+        metrics.unregisterMBeans();
+        assertFalse(server.isRegistered(countsName));
+        assertFalse(server.isRegistered(evaluationName));
+
+        // The names are free to register again, as a rescheduled processor would
+        metrics.registerMBeans(NAME);
+        assertTrue(server.isRegistered(countsName));
+        assertTrue(server.isRegistered(evaluationName));
+    }
+}
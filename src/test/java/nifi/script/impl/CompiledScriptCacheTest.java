@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script.impl;
+
+import nifi.script.CompiledScriptCache;
+import nifi.script.ScriptEngineConfigurator;
+import org.codehaus.groovy.jsr223.GroovyScriptEngineFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.python.jsr223.PyScriptEngineFactory;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for loading compiled scripts from the on-disk cache
+ */
+public class CompiledScriptCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        // Scripts compiled by other tests would be found in memory without going to the cache
+        GroovyScriptEngineConfigurator.clearScriptClassCache();
+        JythonScriptEngineConfigurator.clearScriptCodeCache();
+    }
+
+    @Test
+    public void testGroovyScriptLoadedFromDisk() throws Exception {
+        final String script = "result.add(x * 2)";
+        final GroovyScriptEngineConfigurator configurator = new GroovyScriptEngineConfigurator();
+
+        final CompiledScriptCache storingCache = newCache();
+        assertEquals(42, eval(newGroovyEngine(), configurator, script, storingCache));
+        assertEquals(0, storingCache.getHits());
+        assertEquals(1, storingCache.getMisses());
+
+        // A new run: nothing compiled in memory, so the class has to come from the cache directory
+        GroovyScriptEngineConfigurator.clearScriptClassCache();
+        final CompiledScriptCache loadingCache = newCache();
+        assertEquals(42, eval(newGroovyEngine(), configurator, script, loadingCache));
+        assertEquals(1, loadingCache.getHits());
+        assertEquals(0, loadingCache.getMisses());
+    }
+
+    @Test
+    public void testJythonScriptLoadedFromDisk() throws Exception {
+        final String script = "result.add(x * 2)";
+        final JythonScriptEngineConfigurator configurator = new JythonScriptEngineConfigurator();
+
+        final CompiledScriptCache storingCache = newCache();
+        assertEquals(42, eval(newJythonEngine(), configurator, script, storingCache));
+        assertEquals(0, storingCache.getHits());
+        assertEquals(1, storingCache.getMisses());
+
+        // A new run: nothing compiled in memory, so the code has to come from the cache directory
+        JythonScriptEngineConfigurator.clearScriptCodeCache();
+        final CompiledScriptCache loadingCache = newCache();
+        assertEquals(42, eval(newJythonEngine(), configurator, script, loadingCache));
+        assertEquals(1, loadingCache.getHits());
+        assertEquals(0, loadingCache.getMisses());
+    }
+
+    private CompiledScriptCache newCache() {
+        return new CompiledScriptCache(tempFolder.getRoot().toPath(), new String[0], new URL[0]);
+    }
+
+    private static ScriptEngine newGroovyEngine() {
+        return new GroovyScriptEngineFactory().getScriptEngine();
+    }
+
+    private static ScriptEngine newJythonEngine() {
+        return new PyScriptEngineFactory().getScriptEngine();
+    }
+
+    /**
+     * Compiles the script with the given cache and evaluates it with x bound to 21
+     *
+     * @return what the script added to the result list
+     */
+    private static Object eval(ScriptEngine engine, ScriptEngineConfigurator configurator, String script, CompiledScriptCache cache) throws Exception {
+        final List<Object> result = new ArrayList<>();
+        engine.getBindings(ScriptContext.ENGINE_SCOPE).put("x", 21);
+        engine.getBindings(ScriptContext.ENGINE_SCOPE).put("result", result);
+        configurator.init(engine, new String[0]);
+        configurator.compile(engine, script, new String[0], cache).eval(engine.getContext());
+        assertEquals(1, result.size());
+        return result.get(0);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nifi.script.impl;
+
+import groovy.lang.GroovyClassLoader;
+import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl;
+import org.junit.Test;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the GroovyScriptEngineConfigurator class
+ */
+public class GroovyScriptEngineConfiguratorTest {
+
+    private static final String SCRIPT = "6 * 7";
+
+    @Test
+    public void testScriptClassSharedByEnginesForSameModules() throws Exception {
+        final GroovyScriptEngineConfigurator configurator = new GroovyScriptEngineConfigurator();
+        final URLClassLoader moduleClassLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        final CompiledScript first = configurator.compile(newEngine(moduleClassLoader), SCRIPT, new String[0], null);
+        final CompiledScript second = configurator.compile(newEngine(moduleClassLoader), SCRIPT, new String[0], null);
+        assertEquals(42, first.eval());
+        assertSame(getScriptClass(first), getScriptClass(second));
+    }
+
+    @Test
+    public void testModuleClassLoaderCollectedAfterStop() throws Exception {
+        final GroovyScriptEngineConfigurator configurator = new GroovyScriptEngineConfigurator();
+        URLClassLoader moduleClassLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        // Scheduling compiles the script for each engine. The script is not run, as Groovy's own class info cache
+        // keeps every class it has run from being collected
+        List<CompiledScript> compiledScripts = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            compiledScripts.add(configurator.compile(newEngine(moduleClassLoader), SCRIPT, new String[0], null));
+        }
+        assertSame(getScriptClass(compiledScripts.get(0)), getScriptClass(compiledScripts.get(1)));
+
+        // Stopping the processor drops its engines and compiled scripts, and with them the last strong references
+        final WeakReference<ClassLoader> classLoaderReference = new WeakReference<>(moduleClassLoader);
+        moduleClassLoader.close();
+        moduleClassLoader = null;
+        compiledScripts = null;
+        for (int i = 0; i < 20 && classLoaderReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull("The script class cache kept the module class loader from being collected", classLoaderReference.get());
+    }
+
+    private static ScriptEngine newEngine(ClassLoader moduleClassLoader) {
+        // As ScriptingComponentHelper creates them: each engine's GroovyClassLoader has the module class loader as its parent
+        return new GroovyScriptEngineImpl(new GroovyClassLoader(moduleClassLoader));
+    }
+
+    private static Class<?> getScriptClass(CompiledScript compiledScript) throws Exception {
+        final Field scriptClass = compiledScript.getClass().getDeclaredField("scriptClass");
+        scriptClass.setAccessible(true);
+        return (Class<?>) scriptClass.get(compiledScript);
+    }
+}
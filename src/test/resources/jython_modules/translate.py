@@ -0,0 +1,2 @@
+def upper_filename(name):
+    return name.upper()
@@ -0,0 +1,4 @@
+flowFiles.each { flowFile ->
+    flowFile = session.putAttribute(flowFile, 'batch.size', String.valueOf(flowFiles.size()))
+    session.transfer(flowFile, REL_SUCCESS)
+}
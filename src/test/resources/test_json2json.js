@@ -0,0 +1,23 @@
+var IOUtils = Java.type("org.apache.commons.io.IOUtils");
+var StandardCharsets = Java.type("java.nio.charset.StandardCharsets");
+var StreamCallback = Java.type("org.apache.nifi.processor.io.StreamCallback");
+
+var flowFile = session.get();
+if (flowFile != null) {
+    flowFile = session.write(flowFile, new StreamCallback(function (inputStream, outputStream) {
+        var obj = JSON.parse(IOUtils.toString(inputStream, StandardCharsets.UTF_8));
+        var newObj = {
+            "Range": 5,
+            "Rating": obj.rating.primary.value,
+            "SecondaryRatings": {}
+        };
+        for (var key in obj.rating) {
+            if (key != "primary") {
+                newObj.SecondaryRatings[key] = {"Id": key, "Range": 5, "Value": obj.rating[key].value};
+            }
+        }
+        outputStream.write(JSON.stringify(newObj, null, 4).getBytes(StandardCharsets.UTF_8));
+    }));
+    flowFile = session.putAttribute(flowFile, "filename", flowFile.getAttribute("filename").split(".")[0] + "_translated.json");
+    session.transfer(flowFile, REL_SUCCESS);
+}
@@ -0,0 +1,6 @@
+from translate import upper_filename
+
+flowFile = session.get()
+if (flowFile != None):
+    flowFile = session.putAttribute(flowFile, "filename", upper_filename(flowFile.getAttribute('filename')))
+    session.transfer(flowFile, REL_SUCCESS)